@@ -0,0 +1,118 @@
+package implementations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * BarrierCyclic, SpinningBarrier and TreeBarrier vs CyclicBarrier, per number of parties
+ *
+ * JMH threads don't stop at the same moment, one that goes for another round while the
+ * others stopped would wait at the barrier forever. so only the benchmark thread is a
+ * JMH thread, the other parties - 1 are our own threads going round the barrier until
+ * told the last trip. every await of the benchmark thread is one trip of all parties
+ *
+ * the state is per thread, with -t above 1 every JMH thread has its own barrier and
+ * parties, PrimitivesBenchmark runs this one with 1 thread only
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(1)
+public class BarrierBench {
+
+	@Param({"BarrierCyclic", "SpinningBarrier", "TreeBarrier", "CyclicBarrier"})
+	public String impl;
+
+	@Param({"2", "4"})
+	public int parties;
+
+	private interface Barrier {
+		void await(int party) throws InterruptedException, BrokenBarrierException;
+	}
+
+	private Barrier barrier;
+	private long trips;						//done by the benchmark thread
+	private volatile long lastTrip;			//the others stop after this one
+	private final List<Thread> others = new ArrayList<>();
+
+	@Setup
+	public void setup() {
+		switch(impl) {
+		case "BarrierCyclic":
+			BarrierCyclic b = new BarrierCyclic(parties);
+			barrier = party -> b.await();
+			break;
+		case "SpinningBarrier":
+			SpinningBarrier s = new SpinningBarrier(parties);
+			barrier = party -> s.await();
+			break;
+		case "TreeBarrier":
+			TreeBarrier t = new TreeBarrier(parties);
+			barrier = t::await;
+			break;
+		case "CyclicBarrier":
+			CyclicBarrier c = new CyclicBarrier(parties);
+			barrier = party -> c.await();
+			break;
+		default:
+			throw new IllegalArgumentException("unknown barrier "+impl);
+		}
+
+		trips = 0;
+		lastTrip = Long.MAX_VALUE;
+		for(int p=1; p<parties; p++) {
+			int party = p;
+			Thread t = new Thread(() -> {
+				try {
+					for(long n=1; ; n++) {
+						barrier.await(party);
+						if(n >= lastTrip)
+							break;
+					}
+				} catch(InterruptedException | BrokenBarrierException e) {
+					throw new IllegalStateException(e);
+				}
+			}, "barrier party "+p);
+			t.setDaemon(true);
+			t.start();
+			others.add(t);
+		}
+	}
+
+	@Benchmark
+	public void trip() throws InterruptedException, BrokenBarrierException {
+		barrier.await(0);
+		trips++;
+	}
+
+	//one more trip that every other party is waiting for or about to wait for, after
+	//it they see it was the last and leave
+	@TearDown
+	public void tearDown() throws InterruptedException, BrokenBarrierException {
+		lastTrip = trips + 1;
+		barrier.await(0);
+		for(Thread t: others)
+			t.join();
+		others.clear();
+	}
+}
@@ -0,0 +1,72 @@
+package implementations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the JMH benchmarks of this module for every thread count and writes all results
+ * to one JSON file
+ *
+ * QueueBench			BlockingQueue, RingBufferQueue vs ArrayBlockingQueue, producer/consumer
+ * 				handoff per capacity
+ * ReadWriteLockBench	ReadWriteLock (every policy), StripedReadWriteLock vs
+ * 				ReentrantReadWriteLock, per percentage of reads
+ * SemaphoreBench		CountingSemaphore, AtomicCountingSemaphore vs Semaphore
+ * BarrierBench		BarrierCyclic, SpinningBarrier, TreeBarrier vs CyclicBarrier, per parties
+ * RateLimiterBench		lazy and striped TokenBucketFilter vs a synchronized bucket
+ *
+ * the thread count of JMH is one number per run, so this runs JMH once per count and
+ * puts the results together. BarrierBench has its parties as a param, it only runs
+ * with 1 thread. the file is the -rf json format of JMH, with the thread count of
+ * every result in it, so files of two versions can be compared with any tool that
+ * reads JMH results
+ *
+ * usage - java -cp benchmarks/target/benchmarks.jar implementations.PrimitivesBenchmark
+ * 		[-threads 1,2,4] [-out jmh-result.json] [jmh options] [benchmark regexps]
+ * e.g. "-threads 4 -f 1 -wi 2 -i 3 Queue" for a quick look at the queues. the plain
+ * JMH runner is java -jar benchmarks/target/benchmarks.jar -t 4 -rf json
+ */
+public class PrimitivesBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String threads = "1,2,4";
+		String out = "jmh-result.json";
+		List<String> jmhArgs = new ArrayList<>();
+		for(int i=0; i<args.length; i++) {
+			if(args[i].equals("-threads") && i+1 < args.length)
+				threads = args[++i];
+			else if(args[i].equals("-out") && i+1 < args.length)
+				out = args[++i];
+			else
+				jmhArgs.add(args[i]);
+		}
+		CommandLineOptions jmh = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+
+		List<RunResult> results = new ArrayList<>();
+		for(String t: threads.split(",")) {
+			int n = Integer.parseInt(t.trim());
+			if(n <= 0)
+				throw new IllegalArgumentException("thread count should be positive, got "+n);
+			ChainedOptionsBuilder options = new OptionsBuilder().parent(jmh).threads(n);
+			if(n > 1)
+				options.exclude(BarrierBench.class.getSimpleName());
+			try {
+				results.addAll(new Runner(options.build()).run());
+			} catch(NoBenchmarksException e) {
+				//everything asked for is excluded at this thread count
+			}
+		}
+
+		ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+		System.out.println(results.size()+" results written to "+out);
+	}
+}
@@ -0,0 +1,106 @@
+package implementations;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+/*
+ * BlockingQueue and RingBufferQueue vs ArrayBlockingQueue, per capacity
+ *
+ * producer/consumer handoff - a group is a producer thread offering and a consumer
+ * thread polling, every group works on the same queue. JMH reports produce, consume
+ * and the whole group. with a small capacity the queue is full or empty more often and
+ * the two sides wait for each other more
+ *
+ * JMH doesn't stop all threads at the same moment, a producer blocked on a full queue
+ * whose consumers have already stopped would never return. so both sides use
+ * tryOffer/tryPoll and yield between attempts until they succeed or JMH says the
+ * measurement is over, the same way for every queue. what is measured is the cost of
+ * the handoff itself, parking and waking up waiters is not
+ *
+ * thread count is the -t of JMH (rounded up to whole groups), producers and consumers
+ * are half of it each. -tg 1,3 gives other splits. PrimitivesBenchmark runs every count
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class QueueBench {
+
+	private static final Integer ITEM = 42;
+
+	@Param({"BlockingQueue", "RingBufferQueue", "ArrayBlockingQueue"})
+	public String impl;
+
+	@Param({"16", "1024"})
+	public int capacity;
+
+	private interface Queue {
+		boolean tryPut(Integer x);
+		Integer tryTake();
+	}
+
+	private Queue queue;
+
+	@Setup
+	public void setup() {
+		switch(impl) {
+		case "BlockingQueue":
+			queue = of(new BlockingQueue<>(capacity));
+			break;
+		case "RingBufferQueue":
+			queue = of(new RingBufferQueue<>(capacity));
+			break;
+		case "ArrayBlockingQueue":
+			ArrayBlockingQueue<Integer> q = new ArrayBlockingQueue<>(capacity);
+			queue = new Queue() {
+				public boolean tryPut(Integer x) { return q.offer(x); }
+				public Integer tryTake() { return q.poll(); }
+			};
+			break;
+		default:
+			throw new IllegalArgumentException("unknown queue "+impl);
+		}
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public void produce(Control control) {
+		while(!queue.tryPut(ITEM) && !control.stopMeasurement)
+			Thread.yield();
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public Integer consume(Control control) {
+		Integer x;
+		while((x = queue.tryTake()) == null && !control.stopMeasurement)
+			Thread.yield();
+		return x;
+	}
+
+	private static Queue of(BoundedQueue<Integer> q) {
+		return new Queue() {
+			public boolean tryPut(Integer x) { return q.tryOffer(x); }
+			public Integer tryTake() { return q.tryPoll(); }
+		};
+	}
+}
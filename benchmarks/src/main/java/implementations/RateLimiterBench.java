@@ -0,0 +1,99 @@
+package implementations;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * lazy and striped TokenBucketFilter vs a synchronized bucket refilled on demand, per
+ * capacity. the JDK has no rate limiter, SynchronizedTokenBucket is the textbook one
+ *
+ * a token every TOKEN_PERIOD ns (1M tokens/s), so tries are both granted and denied.
+ * an operation is one tryGetToken
+ *
+ * thread count is the -t of JMH, PrimitivesBenchmark runs every count
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RateLimiterBench {
+
+	private static final long TOKEN_PERIOD = 1000;		//ns
+
+	@Param({"lazy", "striped", "synchronized"})
+	public String impl;
+
+	@Param({"16", "1024"})
+	public int capacity;
+
+	private interface Limiter {
+		boolean tryGetToken();
+	}
+
+	private Limiter limiter;
+
+	@Setup
+	public void setup() {
+		switch(impl) {
+		case "lazy":
+			TokenBucketFilter lazy = TokenBucketFilterFactory.createTokenBucketFilter(capacity, TOKEN_PERIOD, TimeUnit.NANOSECONDS);
+			limiter = lazy::tryGetToken;
+			break;
+		case "striped":
+			TokenBucketFilter striped = TokenBucketFilterFactory.createStripedTokenBucketFilter(capacity, TOKEN_PERIOD,
+					TimeUnit.NANOSECONDS, Math.max(1, capacity / 16));
+			limiter = striped::tryGetToken;
+			break;
+		case "synchronized":
+			limiter = new SynchronizedTokenBucket(capacity, TOKEN_PERIOD)::tryGetToken;
+			break;
+		default:
+			throw new IllegalArgumentException("unknown rate limiter "+impl);
+		}
+	}
+
+	@Benchmark
+	public boolean tryGetToken() {
+		return limiter.tryGetToken();
+	}
+
+	private static class SynchronizedTokenBucket {
+		private final int capacity;
+		private final long period;
+		private long tokens;
+		private long lastRefill;
+
+		SynchronizedTokenBucket(int capacity, long period) {
+			this.capacity = capacity;
+			this.period = period;
+			this.tokens = capacity;
+			this.lastRefill = System.nanoTime();
+		}
+
+		synchronized boolean tryGetToken() {
+			long now = System.nanoTime();
+			long added = (now - lastRefill) / period;
+			if(added > 0) {
+				tokens = Math.min(capacity, tokens + added);
+				lastRefill += added * period;
+			}
+			if(tokens == 0)
+				return false;
+			tokens--;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package implementations;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * ReadWriteLock (every policy) and StripedReadWriteLock vs ReentrantReadWriteLock,
+ * per percentage of reads
+ *
+ * every operation picks read or write with a per thread xorshift, a read sums the two
+ * shared fields under the read lock, a write moves one unit between them under the
+ * write lock. ReadWriteLockBenchmark has the per policy wait times of one lock
+ *
+ * thread count is the -t of JMH, PrimitivesBenchmark runs every count
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReadWriteLockBench {
+
+	@Param({"READER_PREFERRING", "WRITER_PREFERRING", "FAIR", "StripedReadWriteLock", "ReentrantReadWriteLock"})
+	public String impl;
+
+	@Param({"50", "90", "99"})
+	public int readPercent;
+
+	private interface RWLock {
+		void readLock() throws InterruptedException;
+		void readUnlock();
+		void writeLock() throws InterruptedException;
+		void writeUnlock();
+	}
+
+	private RWLock lock;
+	private final long[] shared = new long[2];
+
+	@State(Scope.Thread)
+	public static class Random {
+		long x = System.nanoTime() | 1;
+
+		int nextPercent() {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			return (int) ((x >>> 1) % 100);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		switch(impl) {
+		case "StripedReadWriteLock":
+			StripedReadWriteLock s = new StripedReadWriteLock();
+			lock = new RWLock() {
+				public void readLock() throws InterruptedException { s.acquireReadLock(); }
+				public void readUnlock() { s.releaseReadLock(); }
+				public void writeLock() throws InterruptedException { s.acquireWriteLock(); }
+				public void writeUnlock() { s.releaseWriteLock(); }
+			};
+			break;
+		case "ReentrantReadWriteLock":
+			ReentrantReadWriteLock r = new ReentrantReadWriteLock();
+			lock = new RWLock() {
+				public void readLock() { r.readLock().lock(); }
+				public void readUnlock() { r.readLock().unlock(); }
+				public void writeLock() { r.writeLock().lock(); }
+				public void writeUnlock() { r.writeLock().unlock(); }
+			};
+			break;
+		default:
+			ReadWriteLock l = new ReadWriteLock(ReadWriteLock.Policy.valueOf(impl));
+			lock = new RWLock() {
+				public void readLock() throws InterruptedException { l.acquireReadLock(); }
+				public void readUnlock() { l.releaseReadLock(); }
+				public void writeLock() throws InterruptedException { l.acquireWriteLock(); }
+				public void writeUnlock() { l.releaseWriteLock(); }
+			};
+		}
+	}
+
+	@Benchmark
+	public long readOrWrite(Random random) throws InterruptedException {
+		if(random.nextPercent() < readPercent) {
+			lock.readLock();
+			try {
+				return shared[0] + shared[1];
+			} finally {
+				lock.readUnlock();
+			}
+		}
+		lock.writeLock();
+		try {
+			shared[0]++;
+			shared[1]--;
+			return 0;
+		} finally {
+			lock.writeUnlock();
+		}
+	}
+}
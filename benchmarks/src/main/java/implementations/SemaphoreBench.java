@@ -0,0 +1,80 @@
+package implementations;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/*
+ * CountingSemaphore and AtomicCountingSemaphore vs Semaphore
+ *
+ * there is a permit for every other thread, so with more than one thread some of them
+ * wait. an operation is an acquire and a release
+ *
+ * thread count is the -t of JMH, PrimitivesBenchmark runs every count
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SemaphoreBench {
+
+	@Param({"CountingSemaphore", "AtomicCountingSemaphore", "Semaphore"})
+	public String impl;
+
+	private interface Permits {
+		void acquire() throws InterruptedException;
+		void release() throws InterruptedException;
+	}
+
+	private Permits permits;
+
+	@Setup
+	public void setup(BenchmarkParams params) {
+		int n = Math.max(1, params.getThreads() / 2);
+		switch(impl) {
+		case "CountingSemaphore":
+			CountingSemaphore c = new CountingSemaphore(n, n);
+			permits = new Permits() {
+				public void acquire() throws InterruptedException { c.acquire(); }
+				public void release() throws InterruptedException { c.release(); }
+			};
+			break;
+		case "AtomicCountingSemaphore":
+			AtomicCountingSemaphore a = new AtomicCountingSemaphore(n, n);
+			permits = new Permits() {
+				public void acquire() throws InterruptedException { a.acquire(); }
+				public void release() throws InterruptedException { a.release(); }
+			};
+			break;
+		case "Semaphore":
+			Semaphore s = new Semaphore(n);
+			permits = new Permits() {
+				public void acquire() throws InterruptedException { s.acquire(); }
+				public void release() { s.release(); }
+			};
+			break;
+		default:
+			throw new IllegalArgumentException("unknown semaphore "+impl);
+		}
+	}
+
+	@Benchmark
+	public void acquireRelease() throws InterruptedException {
+		permits.acquire();
+		permits.release();
+	}
+}
@@ -0,0 +1,79 @@
+package implementations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+//the BoundedQueue contract, run against every implementation
+class BoundedQueueTest {
+
+	static Stream<IntFunction<BoundedQueue<Integer>>> queues() {
+		return Stream.of(BlockingQueue::new, RingBufferQueue::new);
+	}
+
+	private static Thread start(Runnable r) {
+		Thread t = new Thread(r);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	private static void awaitParked(Thread t) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while(t.getState() != Thread.State.WAITING) {
+			assertTrue(System.nanoTime() < end, t.getName()+" didn't block");
+			Thread.sleep(1);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("queues")
+	void tryOfferWakesBlockedPoll(IntFunction<BoundedQueue<Integer>> factory) throws Exception {
+		BoundedQueue<Integer> q = factory.apply(2);
+		CompletableFuture<Integer> polled = new CompletableFuture<>();
+		Thread consumer = start(() -> {
+			try {
+				polled.complete(q.poll());
+			} catch(InterruptedException e) {
+				polled.completeExceptionally(e);
+			}
+		});
+		awaitParked(consumer);
+
+		assertTrue(q.tryOffer(7));
+		assertEquals(7, polled.get(2, TimeUnit.SECONDS));
+	}
+
+	@ParameterizedTest
+	@MethodSource("queues")
+	void tryPollWakesBlockedOffer(IntFunction<BoundedQueue<Integer>> factory) throws Exception {
+		BoundedQueue<Integer> q = factory.apply(2);
+		q.offer(1);
+		q.offer(2);
+		CompletableFuture<Void> offered = new CompletableFuture<>();
+		Thread producer = start(() -> {
+			try {
+				q.offer(3);
+				offered.complete(null);
+			} catch(InterruptedException e) {
+				offered.completeExceptionally(e);
+			}
+		});
+		awaitParked(producer);
+
+		assertEquals(1, q.tryPoll());
+		offered.get(2, TimeUnit.SECONDS);
+		assertEquals(2, q.tryPoll());
+		assertEquals(3, q.tryPoll());
+		assertNull(q.tryPoll());
+		assertTrue(q.isEmpty());
+	}
+}
@@ -0,0 +1,90 @@
+package implementations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class RingBufferQueueTest {
+
+	//daemon, so a thread that is never woken up doesn't keep the test jvm alive
+	private static Thread start(Runnable r) {
+		Thread t = new Thread(r);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	//waits until t is parked, so the next call really has to wake it
+	private static void awaitParked(Thread t) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while(t.getState() != Thread.State.WAITING) {
+			assertTrue(System.nanoTime() < end, t.getName()+" didn't block");
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	void tryOfferWakesBlockedPoll() throws Exception {
+		RingBufferQueue<Integer> q = new RingBufferQueue<>(4);
+		CompletableFuture<Integer> polled = new CompletableFuture<>();
+		Thread consumer = start(() -> {
+			try {
+				polled.complete(q.poll());
+			} catch(InterruptedException e) {
+				polled.completeExceptionally(e);
+			}
+		});
+		awaitParked(consumer);
+
+		assertTrue(q.tryOffer(7));
+		assertEquals(7, polled.get(2, TimeUnit.SECONDS));
+		consumer.join();
+	}
+
+	@Test
+	void tryPollWakesBlockedOffer() throws Exception {
+		RingBufferQueue<Integer> q = new RingBufferQueue<>(1);
+		q.offer(1);
+		CompletableFuture<Void> offered = new CompletableFuture<>();
+		Thread producer = start(() -> {
+			try {
+				q.offer(2);
+				offered.complete(null);
+			} catch(InterruptedException e) {
+				offered.completeExceptionally(e);
+			}
+		});
+		awaitParked(producer);
+
+		assertEquals(1, q.tryPoll());
+		offered.get(2, TimeUnit.SECONDS);
+		assertEquals(2, q.tryPoll());
+		producer.join();
+	}
+
+	@Test
+	void capacityIsTheRequestedOne() throws Exception {
+		RingBufferQueue<Integer> q = new RingBufferQueue<>(5);
+		assertEquals(5, q.capacity());
+		for(int i=0; i<5; i++)
+			assertTrue(q.tryOffer(i));
+		assertFalse(q.tryOffer(5));
+		assertEquals(5, q.size());
+
+		//and on the following laps of the ring, not only the first
+		for(int i=5; i<20; i++) {
+			assertEquals(i - 5, q.poll());
+			assertTrue(q.tryOffer(i));
+			assertFalse(q.tryOffer(-1));
+		}
+		for(int i=15; i<20; i++)
+			assertEquals(i, q.tryPoll());
+		assertNull(q.tryPoll());
+	}
+}
@@ -0,0 +1,108 @@
+package implementations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SpinningBarrierTest {
+
+	//runs await on a daemon thread, the future completes with what it threw
+	private static CompletableFuture<Void> awaitAsync(SpinningBarrier b, Thread[] thread) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		Thread t = new Thread(() -> {
+			try {
+				b.await();
+				done.complete(null);
+			} catch(Throwable e) {
+				done.completeExceptionally(e);
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		if(thread != null)
+			thread[0] = t;
+		return done;
+	}
+
+	private static Class<?> cause(CompletableFuture<Void> f) throws Exception {
+		ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(2, TimeUnit.SECONDS));
+		return e.getCause().getClass();
+	}
+
+	@Test
+	void tripsEveryPhase() throws Exception {
+		AtomicInteger trips = new AtomicInteger();
+		SpinningBarrier b = new SpinningBarrier(3, trips::incrementAndGet);
+		for(int phase=1; phase<=100; phase++) {
+			CompletableFuture<Void> x = awaitAsync(b, null);
+			CompletableFuture<Void> y = awaitAsync(b, null);
+			b.await();
+			x.get(2, TimeUnit.SECONDS);
+			y.get(2, TimeUnit.SECONDS);
+			assertEquals(phase, trips.get());
+		}
+	}
+
+	@Test
+	void interruptedWaiterBreaksTheBarrier() throws Exception {
+		SpinningBarrier b = new SpinningBarrier(3);
+		Thread[] first = new Thread[1];
+		CompletableFuture<Void> interrupted = awaitAsync(b, first);
+		CompletableFuture<Void> other = awaitAsync(b, null);
+		Thread.sleep(50);
+		first[0].interrupt();
+
+		assertEquals(InterruptedException.class, cause(interrupted));
+		assertEquals(BrokenBarrierException.class, cause(other));
+		assertTrue(b.isBroken());
+		assertThrows(BrokenBarrierException.class, b::await);
+
+		b.reset();
+		assertFalse(b.isBroken());
+		CompletableFuture<Void> x = awaitAsync(b, null);
+		CompletableFuture<Void> y = awaitAsync(b, null);
+		b.await();
+		x.get(2, TimeUnit.SECONDS);
+		y.get(2, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void timeoutBreaksTheBarrier() throws Exception {
+		SpinningBarrier b = new SpinningBarrier(2);
+		assertThrows(TimeoutException.class, () -> b.await(20, TimeUnit.MILLISECONDS));
+		assertTrue(b.isBroken());
+		assertThrows(BrokenBarrierException.class, () -> b.await(20, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void failingActionBreaksTheBarrier() throws Exception {
+		SpinningBarrier b = new SpinningBarrier(2, () -> {
+			throw new IllegalStateException("action");
+		});
+		CompletableFuture<Void> other = awaitAsync(b, null);
+		Thread.sleep(50);
+		assertThrows(IllegalStateException.class, b::await);
+		assertEquals(BrokenBarrierException.class, cause(other));
+		assertTrue(b.isBroken());
+	}
+
+	@Test
+	void resetReleasesWaitersBroken() throws Exception {
+		SpinningBarrier b = new SpinningBarrier(2);
+		CompletableFuture<Void> waiting = awaitAsync(b, null);
+		Thread.sleep(50);
+		b.reset();
+		assertEquals(BrokenBarrierException.class, cause(waiting));
+		assertFalse(b.isBroken());
+	}
+}
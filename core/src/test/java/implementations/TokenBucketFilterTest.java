@@ -0,0 +1,68 @@
+package implementations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketFilterTest {
+
+	@Test
+	void getTokenKeepsTheInterrupt() throws Exception {
+		TokenBucketFilter filter = TokenBucketFilterFactory.createTokenBucketFilter(1);
+		filter.getToken();		//the first token, the next one is a second away
+		CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+		Thread t = new Thread(() -> {
+			Thread.currentThread().interrupt();
+			filter.getToken();		//waits for the next token with the interrupt pending
+			interrupted.complete(Thread.currentThread().isInterrupted());
+		});
+		t.setDaemon(true);
+		t.start();
+		assertTrue(interrupted.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void interruptedGeneratorStopsAndCancelsWaiters() throws Exception {
+		Thread[] before = generators();
+		TokenBucketFilter filter = TokenBucketFilterFactory.createTokenBucketFilter(2);
+		CompletableFuture<Void> waiting = filter.acquireAsync(2);
+
+		for(Thread g: generators())
+			if(!Arrays.asList(before).contains(g))
+				g.interrupt();
+
+		assertThrows(CancellationException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void metricsDepthIsAvailableTokensAndNameCanBeReused() {
+		TokenBucketFilter lazy = TokenBucketFilterFactory.createTokenBucketFilter(4, 1, TimeUnit.HOURS);
+		TokenBucketFilter metered = TokenBucketFilterFactory.withMetrics(lazy, "depth-test");
+		SyncMetrics metrics = TokenBucketFilterFactory.getMetrics(metered);
+		assertEquals(0, metrics.getDepth());		//starts empty, next token in an hour
+
+		TokenBucketFilter full = TokenBucketFilterFactory.createTokenBucketFilter(4, 1, TimeUnit.NANOSECONDS);
+		assertThrows(IllegalArgumentException.class, () -> TokenBucketFilterFactory.withMetrics(full, "depth-test"));
+
+		assertSame(lazy, TokenBucketFilterFactory.withoutMetrics(metered));
+		TokenBucketFilter reused = TokenBucketFilterFactory.withMetrics(full, "depth-test");
+		assertEquals(4, TokenBucketFilterFactory.getMetrics(reused).getDepth());
+		assertTrue(reused.tryGetTokens(3));
+		assertTrue(TokenBucketFilterFactory.getMetrics(reused).getDepth() >= 1);
+		TokenBucketFilterFactory.withoutMetrics(reused);
+	}
+
+	private static Thread[] generators() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> t.getName().equals("Token Generator thread"))
+				.toArray(Thread[]::new);
+	}
+}
@@ -0,0 +1,189 @@
+package implementations;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * CountingSemaphore without a monitor on the uncontended path
+ *
+ * same behaviour as CountingSemaphore, permits can't go above MAX_PERMITS -
+ * acquire(n) - obtains n permits, blocks until n are available
+ * release(n) - gives back n permits, blocks while that would go above MAX_PERMITS
+ * (java Semaphore has no upper bound, release always succeeds there)
+ *
+ * permits are an AtomicInteger changed with CAS, so acquire/release that don't have
+ * to wait never take a lock and never signal anybody
+ * only a thread that has to wait takes the lock, counts itself in acquirersWaiting or
+ * releasersWaiting and waits on a condition. the other side changes permits first and
+ * then reads the waiting count, both volatile, so either the waiter sees the new permits
+ * before it waits or the other side sees the waiter and signals it
+ *
+ * waiters can ask for different amounts of permits, so they are woken with signalAll
+ */
+public class AtomicCountingSemaphore {
+
+	private final AtomicInteger permits;
+	private final int MAX_PERMITS;
+
+	private final Lock lock;
+	private final Condition permitsAvailable;	//acquirers wait here
+	private final Condition roomAvailable;		//releasers wait here
+	private volatile int acquirersWaiting;		//changed only under lock
+	private volatile int releasersWaiting;
+
+	public AtomicCountingSemaphore(int maxpermits, int availablepermits) {
+		if(maxpermits <= 0 || availablepermits < 0 || availablepermits > maxpermits)
+			throw new IllegalArgumentException("need 0 <= availablepermits <= maxpermits and maxpermits > 0");
+		this.MAX_PERMITS = maxpermits;
+		this.permits = new AtomicInteger(availablepermits);
+		this.lock = new ReentrantLock();
+		this.permitsAvailable = lock.newCondition();
+		this.roomAvailable = lock.newCondition();
+	}
+
+	public void acquire() throws InterruptedException {
+		acquire(1);
+	}
+
+	public void acquire(int n) throws InterruptedException {
+		checkPermits(n);
+		if(!tryAcquire(n))
+			acquireSlow(n, false, 0L);
+	}
+
+	//takes n permits if they are available right now, never blocks
+	public boolean tryAcquire(int n) {
+		checkPermits(n);
+		while(true) {
+			int p = permits.get();
+			if(p < n)
+				return false;
+			if(permits.compareAndSet(p, p - n)) {
+				if(releasersWaiting > 0)
+					signal(roomAvailable);
+				return true;
+			}
+		}
+	}
+
+	//blocks until at least one permit is available, then takes as many more as are
+	//available right now, up to max in total. returns the number of permits taken
+	//unlike acquire(max) it doesn't wait for all of them, so two sides moving batches
+	//through a small semaphore can't wait on each other forever
+	public int acquireUpTo(int max) throws InterruptedException {
+		if(max <= 0)
+			throw new IllegalArgumentException("permits should be positive, got "+max);
+		acquire(1);
+
+		int taken = 1;
+		while(taken < max) {
+			int p = permits.get();
+			if(p == 0)
+				break;
+			int n = Math.min(p, max - taken);
+			if(permits.compareAndSet(p, p - n)) {
+				taken += n;
+				if(releasersWaiting > 0)
+					signal(roomAvailable);
+			}
+		}
+		return taken;
+	}
+
+	//returns false if n permits didn't become available before the timeout
+	public boolean tryAcquire(int n, long timeout, TimeUnit unit) throws InterruptedException {
+		checkPermits(n);
+		if(tryAcquire(n))
+			return true;
+		return acquireSlow(n, true, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	public void release() throws InterruptedException {
+		release(1);
+	}
+
+	public void release(int n) throws InterruptedException {
+		checkPermits(n);
+		if(!tryRelease(n))
+			releaseSlow(n);
+	}
+
+	//gives back n permits if that doesn't go above MAX_PERMITS, never blocks
+	public boolean tryRelease(int n) {
+		checkPermits(n);
+		while(true) {
+			int p = permits.get();
+			if(p > MAX_PERMITS - n)
+				return false;
+			if(permits.compareAndSet(p, p + n)) {
+				if(acquirersWaiting > 0)
+					signal(permitsAvailable);
+				return true;
+			}
+		}
+	}
+
+	public int availablePermits() {
+		return permits.get();
+	}
+
+	public int getMaxPermits() {
+		return this.MAX_PERMITS;
+	}
+
+	private boolean acquireSlow(int n, boolean timed, long deadline) throws InterruptedException {
+		lock.lock();
+		try {
+			acquirersWaiting++;
+			try {
+				while(!tryAcquire(n)) {
+					if(!timed) {
+						permitsAvailable.await();
+					} else {
+						long nanos = deadline - System.nanoTime();
+						if(nanos <= 0)
+							return false;
+						permitsAvailable.awaitNanos(nanos);
+					}
+				}
+				return true;
+			} finally {
+				acquirersWaiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void releaseSlow(int n) throws InterruptedException {
+		lock.lock();
+		try {
+			releasersWaiting++;
+			try {
+				while(!tryRelease(n))
+					roomAvailable.await();
+			} finally {
+				releasersWaiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void signal(Condition c) {
+		lock.lock();
+		try {
+			c.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkPermits(int n) {
+		if(n <= 0 || n > MAX_PERMITS)
+			throw new IllegalArgumentException("permits should be between 1 and "+MAX_PERMITS+", got "+n);
+	}
+}
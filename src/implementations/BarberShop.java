@@ -28,9 +28,24 @@ import java.util.concurrent.locks.ReentrantLock;
  * trying to get a haircut
  * 
  * barberWork is supposed to be called by barber thread
+ * (exactly one, BarberShopPool is the version for several barbers)
+ * 
+ * BarberShopSimulation runs the same rules on a virtual clock without threads, for
+ * capacity planning with millions of arrivals
+ * 
+ * diagnostic output goes through EventJournal, nothing is printed while holding lock
+ * 
+ * main takes "virtual" and a customer count to run every customer on a virtual
+ * thread (see ThreadLauncher), e.g. "virtual 1000000"
  */
 public class BarberShop {
 	
+	private static final int LEAVING = EventJournal.event("No space left, leaving {thread}");
+	private static final int WAITING = EventJournal.event("Wating {thread}");
+	private static final int CALLED = EventJournal.event("called by barber {thread}");
+	private static final int BARBER_AWAKE = EventJournal.event("Barber awake!");
+	private static final int HAIRCUT_DONE = EventJournal.event("Haircut done!");
+	
 	int numCustomersWaiting;
 	final int MAX_CUSTOMERS;
 	Lock lock;
@@ -54,13 +69,13 @@ public class BarberShop {
 		lock.lock();
 		
 		if(numCustomersWaiting == MAX_CUSTOMERS) {
-			System.out.println("No space left, leaving "+Thread.currentThread().getName());
+			EventJournal.log(LEAVING);
 			lock.unlock();
 			return;
 		}
 		
 		numCustomersWaiting++;
-		System.out.println("Wating "+Thread.currentThread().getName());
+		EventJournal.log(WAITING);
 		lock.unlock();
 		
 		customerWaiting.release();	//signal in case barber is sleeping due to no customers
@@ -70,7 +85,7 @@ public class BarberShop {
 		lock.lock();
 		numCustomersWaiting--;		//after barber calls release your waiting seat
 		
-		System.out.println("called by barber "+Thread.currentThread().getName());
+		EventJournal.log(CALLED);
 		
 		lock.unlock();
 		
@@ -83,14 +98,14 @@ public class BarberShop {
 	public void barberWork() throws InterruptedException {
 		while(true) {
 			customerWaiting.acquire();
-			System.out.println("Barber awake!");
+			EventJournal.log(BARBER_AWAKE);
 			
 			barberCalls.release();	//signal any customer waiting for call
 			
 			occupyBarberSeat.acquire(); //wait for customer to be seated
 			
 			Thread.sleep(2000);  //simulate haircut
-			System.out.println("Haircut done!");
+			EventJournal.log(HAIRCUT_DONE);
 			
 			waitHairCutEnd.release();  //signal waiting customer that hair cut is done
 		}
@@ -100,8 +115,10 @@ public class BarberShop {
 	public static void main(String[] args) {
 		
 		BarberShop o = new BarberShop(5);
+		ThreadLauncher launcher = ThreadLauncher.fromArgs(args);
+		int numCustomers = ThreadLauncher.count(args, 10);
 		
-		Thread barber = new Thread(() -> {
+		Thread barber = launcher.newThread(() -> {
 			try {
 				o.barberWork();
 			} catch (InterruptedException e) {
@@ -114,8 +131,8 @@ public class BarberShop {
 		
 		Random random = new Random();
 		
-		for(int i = 0; i<10; i++) {
-			 Thread customer = new Thread( ()->{
+		for(int i = 0; i<numCustomers; i++) {
+			 Thread customer = launcher.newThread( ()->{
 				
 				try {
 					Thread.sleep((Math.abs(random.nextInt())%5)*1000);
@@ -145,6 +162,7 @@ public class BarberShop {
 		}
 		
 		barber.interrupt();
+		EventJournal.flush();
 		System.out.print("Interrupted barber thread! exiting");
 	}
 }
@@ -0,0 +1,229 @@
+package implementations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * BarberShop with any number of barbers sharing one waiting room
+ *
+ * BarberShop works for one barber only, its semaphores are global - with two barbers
+ * customer A can be seated by barber 1 and get the "haircut done" of barber 2 meant
+ * for customer B. here every customer gets a Ticket and the whole conversation with
+ * its barber (call, seated, done) happens on that ticket, signals can't cross
+ *
+ * customerEnter()
+ * 	the waiting room is an AtomicInteger of occupied chairs, a customer takes one with
+ * 	a CAS or leaves (balks) if all MAX_CUSTOMERS are taken, no lock either way
+ * 	the ticket goes into a RingBufferQueue, always room there since it has at least as
+ * 	many slots as chairs, and the customer parks until a barber calls the ticket
+ * 	called, it frees its chair, sits down and parks until the haircut is done
+ * 	returns true if the customer got a haircut, false if it balked or the barber was
+ * 	interrupted before finishing it
+ * barberWork(barberId)
+ * 	called by each of the K barber threads, takes the next ticket (sleeps in poll while
+ * 	the room is empty), calls it, waits until the customer is seated, cuts, done
+ *
+ * a customer interrupted while waiting to be called cancels its ticket, the barber that
+ * takes a cancelled ticket out of the ring frees its chair and skips it. so taken chairs
+ * always cover every ticket in the ring, live or cancelled, and offer never waits.
+ * once called the customer stays to the end and the interrupt is kept for the caller.
+ * a barber interrupted during a haircut stops, the customer leaves without counting
+ * as served
+ *
+ * customers are served as fast as barbers free up, so throughput grows with the number
+ * of barbers until arrivals are the limit. main runs the same arrivals with 1, 2 and 4
+ * barbers and prints served/balked for each
+ *
+ * main takes "virtual" and a customer count like BarberShop (see ThreadLauncher)
+ */
+public class BarberShopPool {
+
+	private static final int LEAVING = EventJournal.event("No space left, leaving {thread}");
+	private static final int WAITING = EventJournal.event("Wating {thread}");
+	private static final int CALLED = EventJournal.event("called by barber {} {thread}");
+	private static final int HAIRCUT_DONE = EventJournal.event("Haircut done! barber {}");
+
+	//stages of a ticket
+	private static final int IN_ROOM = 0;
+	private static final int CALLED_IN = 1;
+	private static final int SEATED = 2;
+	private static final int DONE = 3;
+	private static final int CANCELLED = 4;
+	private static final int UNFINISHED = 5;
+
+	//one customer's visit, written by that customer and the barber that calls it
+	private static class Ticket {
+		final Thread customer = Thread.currentThread();
+		final AtomicInteger stage = new AtomicInteger(IN_ROOM);
+		volatile Thread barber;
+		volatile int barberId;
+	}
+
+	final int MAX_CUSTOMERS;
+	private final long haircutMillis;
+	private final AtomicInteger chairsTaken;
+	private final RingBufferQueue<Ticket> waitingRoom;
+	private final LongAdder served;
+	private final LongAdder balked;
+
+	BarberShopPool(int capacity, long haircutMillis) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("capacity should be positive, got "+capacity);
+		this.MAX_CUSTOMERS = capacity;
+		this.haircutMillis = haircutMillis;
+		this.chairsTaken = new AtomicInteger(0);
+		this.waitingRoom = new RingBufferQueue<>(capacity);
+		this.served = new LongAdder();
+		this.balked = new LongAdder();
+	}
+
+	public boolean customerEnter() throws InterruptedException {
+		int taken;
+		do {
+			taken = chairsTaken.get();
+			if(taken == MAX_CUSTOMERS) {
+				EventJournal.log(LEAVING);
+				balked.increment();
+				return false;
+			}
+		} while(!chairsTaken.compareAndSet(taken, taken + 1));
+
+		Ticket ticket = new Ticket();
+		try {
+			waitingRoom.offer(ticket);		//never waits, a slot per chair. wakes a sleeping barber
+		} catch(InterruptedException e) {
+			chairsTaken.decrementAndGet();
+			throw e;
+		}
+		EventJournal.log(WAITING);
+
+		while(ticket.stage.get() == IN_ROOM) {
+			LockSupport.park(this);
+			if(Thread.interrupted()) {
+				if(ticket.stage.compareAndSet(IN_ROOM, CANCELLED))
+					throw new InterruptedException();	//the barber taking the ticket frees the chair
+				//called at the same time, go through with it
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		boolean interrupted = Thread.interrupted();
+		chairsTaken.decrementAndGet();		//after barber calls release your waiting seat
+		EventJournal.log(CALLED, ticket.barberId);
+
+		ticket.stage.set(SEATED);
+		LockSupport.unpark(ticket.barber);
+
+		int stage;
+		while((stage = ticket.stage.get()) == SEATED) {
+			LockSupport.park(this);
+			if(Thread.interrupted())
+				interrupted = true;
+		}
+		if(stage == DONE)
+			served.increment();
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		return stage == DONE;
+	}
+
+	public void barberWork(int barberId) throws InterruptedException {
+		while(true) {
+			Ticket ticket = waitingRoom.poll();		//sleeps while nobody is waiting
+			ticket.barber = Thread.currentThread();
+			ticket.barberId = barberId;
+			if(!ticket.stage.compareAndSet(IN_ROOM, CALLED_IN)) {
+				chairsTaken.decrementAndGet();	//customer gave up, its chair is free now
+				continue;
+			}
+			LockSupport.unpark(ticket.customer);
+
+			boolean interrupted = false;
+			while(ticket.stage.get() != SEATED) {
+				LockSupport.park(this);
+				if(Thread.interrupted())
+					interrupted = true;
+			}
+
+			int result = UNFINISHED;
+			try {
+				if(interrupted)
+					throw new InterruptedException();
+				Thread.sleep(haircutMillis);  //simulate haircut
+				EventJournal.log(HAIRCUT_DONE, barberId);
+				result = DONE;
+			} finally {
+				ticket.stage.set(result);
+				LockSupport.unpark(ticket.customer);
+			}
+		}
+	}
+
+	public long getServed() {
+		return served.sum();
+	}
+
+	public long getBalked() {
+		return balked.sum();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		ThreadLauncher launcher = ThreadLauncher.fromArgs(args);
+		int numCustomers = ThreadLauncher.count(args, 40);
+		long seed = new Random().nextLong();
+
+		for(int barbers: new int[] {1, 2, 4}) {
+			BarberShopPool o = new BarberShopPool(5, 200);
+
+			List<Thread> barberThreads = new ArrayList<>();
+			for(int b=0; b<barbers; b++) {
+				int id = b;
+				Thread barber = launcher.newThread(() -> {
+					try {
+						o.barberWork(id);
+					} catch (InterruptedException e) {
+						//shop closed
+					}
+				});
+				barber.setName("Barber Thread "+b);
+				barberThreads.add(barber);
+			}
+
+			//same arrival times for every number of barbers
+			Random random = new Random(seed);
+			List<Thread> customers = new ArrayList<>();
+			for(int i=0; i<numCustomers; i++) {
+				long arrival = random.nextInt(2000);
+				Thread customer = launcher.newThread(() -> {
+					try {
+						Thread.sleep(arrival);
+						o.customerEnter();
+					} catch (InterruptedException e) {
+						System.out.println("Interrupted "+Thread.currentThread().getName());
+					}
+				});
+				customer.setName("Customer Thread "+i);
+				customers.add(customer);
+			}
+
+			long start = System.nanoTime();
+			for(Thread barber: barberThreads)
+				barber.start();
+			for(Thread customer: customers)
+				customer.start();
+			ThreadLauncher.joinAll(customers);
+			long millis = (System.nanoTime() - start) / 1_000_000;
+
+			for(Thread barber: barberThreads)
+				barber.interrupt();
+			ThreadLauncher.joinAll(barberThreads);
+			EventJournal.flush();
+			System.out.println(barbers+" barbers - served "+o.getServed()+" balked "+o.getBalked()+" in "+millis+"ms");
+		}
+	}
+}
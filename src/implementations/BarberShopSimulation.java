@@ -0,0 +1,269 @@
+package implementations;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/*
+ * BarberShop without threads - a discrete event simulation on a virtual clock
+ *
+ * BarberShop.main runs a thread per customer and really sleeps through every haircut,
+ * a capacity planning run of millions of arrivals would take hours. here customers
+ * and barbers are just state, and what happens to them are events with a timestamp
+ * in a priority queue. the loop takes the earliest event, moves the clock to its time
+ * and handles it, nobody sleeps and one core does millions of arrivals per second
+ *
+ * same rules as customerEnter/barberWork, with barbers barbers instead of one -
+ * ARRIVAL		a customer comes in. all MAX_CUSTOMERS chairs taken - balks. a barber
+ * 			free - straight into the barber chair. otherwise takes a chair
+ * 			schedules the next arrival, time between arrivals is exponential
+ * 			with mean meanInterarrival (poisson arrivals)
+ * HAIRCUT_DONE	a barber finishes. takes the customer waiting the longest if there is
+ * 			one, otherwise goes to sleep
+ * a customer in the barber chair doesn't hold a waiting chair, like in BarberShop
+ *
+ * the event queue is a binary heap on parallel primitive arrays (time, insertion
+ * order, event) so nothing is allocated per event, ties are handled in insertion
+ * order. the waiting room is a ring of arrival times
+ *
+ * reports -
+ * served and balked customers
+ * queue length distribution	share of virtual time with n customers waiting
+ * wait time distribution	from arrival to the barber chair for served customers,
+ * 				log2 buckets like SyncMetrics
+ * virtual time is in ns, so waits print like the metrics of the real primitives
+ *
+ * usage - BarberShopSimulation [arrivals] [barbers] [chairs] [mean interarrival ms]
+ * 		[haircut ms] [seed]
+ */
+public class BarberShopSimulation {
+
+	private static final int ARRIVAL = 0;
+	private static final int HAIRCUT_DONE = 1;
+
+	//event queue, heap ordered by (time, seq)
+	private long[] times = new long[16];
+	private long[] seqs = new long[16];
+	private int[] events = new int[16];		//kind in the low bit, barber above it
+	private int size;
+	private long nextSeq;
+
+	final int MAX_CUSTOMERS;
+	private final long meanInterarrival;	//ns
+	private final long haircut;				//ns
+	private final SplittableRandom random;
+
+	private long now;
+	private final int[] freeBarbers;		//stack of sleeping barbers
+	private int sleeping;
+	private final long[] waitingSince;		//ring of arrival times, one per chair
+	private int waitingHead;
+	private int waiting;
+
+	private long arrivals;
+	private long served;
+	private long balked;
+	private final long[] timeAtLength;		//ns of virtual time with n customers waiting
+	private final long[] waitBuckets = new long[65];
+	private long waitSum;
+	private long waitMax;
+
+	BarberShopSimulation(int capacity, int barbers, long meanInterarrival, long haircut, long seed) {
+		if(capacity <= 0 || barbers <= 0)
+			throw new IllegalArgumentException("chairs and barbers should be positive, got "+capacity+" and "+barbers);
+		if(meanInterarrival <= 0 || haircut < 0)
+			throw new IllegalArgumentException("bad times - interarrival "+meanInterarrival+" haircut "+haircut);
+		this.MAX_CUSTOMERS = capacity;
+		this.meanInterarrival = meanInterarrival;
+		this.haircut = haircut;
+		this.random = new SplittableRandom(seed);
+		this.freeBarbers = new int[barbers];
+		for(int b=0; b<barbers; b++)
+			freeBarbers[b] = barbers - 1 - b;
+		this.sleeping = barbers;
+		this.waitingSince = new long[capacity];
+		this.timeAtLength = new long[capacity + 1];
+	}
+
+	//simulates until maxArrivals customers arrived and everybody inside is done
+	public void run(long maxArrivals) {
+		if(maxArrivals > 0)
+			schedule(interarrival(), ARRIVAL);
+
+		while(size > 0) {
+			long time = times[0];
+			int event = events[0];
+			removeFirst();
+
+			timeAtLength[waiting] += time - now;
+			now = time;
+
+			if((event & 1) == ARRIVAL) {
+				arrive();
+				if(arrivals < maxArrivals)
+					schedule(now + interarrival(), ARRIVAL);
+			} else {
+				haircutDone(event >>> 1);
+			}
+		}
+	}
+
+	private void arrive() {
+		arrivals++;
+		if(sleeping > 0) {
+			//barber was sleeping, wakes up and calls the customer right away
+			startHaircut(now, freeBarbers[--sleeping]);
+		} else if(waiting == MAX_CUSTOMERS) {
+			balked++;
+		} else {
+			waitingSince[(waitingHead + waiting) % MAX_CUSTOMERS] = now;
+			waiting++;
+		}
+	}
+
+	private void haircutDone(int barber) {
+		served++;
+		if(waiting == 0) {
+			freeBarbers[sleeping++] = barber;
+			return;
+		}
+		long arrived = waitingSince[waitingHead];
+		waitingHead = (waitingHead + 1) % MAX_CUSTOMERS;
+		waiting--;
+		startHaircut(arrived, barber);
+	}
+
+	private void startHaircut(long arrived, int barber) {
+		long wait = now - arrived;
+		waitBuckets[64 - Long.numberOfLeadingZeros(wait)]++;
+		waitSum += wait;
+		waitMax = Math.max(waitMax, wait);
+		schedule(now + haircut, HAIRCUT_DONE | (barber << 1));
+	}
+
+	private long interarrival() {
+		return (long) (-meanInterarrival * Math.log(1 - random.nextDouble()));
+	}
+
+	//heap
+
+	private void schedule(long time, int event) {
+		if(size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			seqs = Arrays.copyOf(seqs, size * 2);
+			events = Arrays.copyOf(events, size * 2);
+		}
+		long seq = nextSeq++;
+		int i = size++;
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(!before(time, seq, parent))
+				break;
+			move(parent, i);
+			i = parent;
+		}
+		times[i] = time;
+		seqs[i] = seq;
+		events[i] = event;
+	}
+
+	private void removeFirst() {
+		int last = --size;
+		long time = times[last];
+		long seq = seqs[last];
+		int event = events[last];
+		int i = 0;
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= size)
+				break;
+			if(child + 1 < size && before(times[child + 1], seqs[child + 1], child))
+				child++;
+			if(!before(times[child], seqs[child], time, seq))
+				break;
+			move(child, i);
+			i = child;
+		}
+		times[i] = time;
+		seqs[i] = seq;
+		events[i] = event;
+	}
+
+	private boolean before(long time, long seq, int i) {
+		return before(time, seq, times[i], seqs[i]);
+	}
+
+	private static boolean before(long time, long seq, long otherTime, long otherSeq) {
+		return (time != otherTime) ? time < otherTime : seq < otherSeq;
+	}
+
+	private void move(int from, int to) {
+		times[to] = times[from];
+		seqs[to] = seqs[from];
+		events[to] = events[from];
+	}
+
+	//results
+
+	public long getArrivals() {
+		return arrivals;
+	}
+
+	public long getServed() {
+		return served;
+	}
+
+	public long getBalked() {
+		return balked;
+	}
+
+	//virtual ns elapsed
+	public long getTime() {
+		return now;
+	}
+
+	//share of virtual time with n customers waiting, n = 0 .. MAX_CUSTOMERS
+	public double[] queueLengthDistribution() {
+		double[] share = new double[timeAtLength.length];
+		for(int n=0; n<share.length; n++)
+			share[n] = (now == 0) ? 0 : (double) timeAtLength[n] / now;
+		return share;
+	}
+
+	public SyncMetrics.HistogramSnapshot waitTime() {
+		return new SyncMetrics.HistogramSnapshot(waitBuckets.clone(), waitSum, waitMax);
+	}
+
+	public static void main(String[] args) {
+		long numArrivals = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+		int barbers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int chairs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		long interarrivalMs = args.length > 3 ? Long.parseLong(args[3]) : 2000;
+		long haircutMs = args.length > 4 ? Long.parseLong(args[4]) : 2000;
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+
+		BarberShopSimulation o = new BarberShopSimulation(chairs, barbers,
+				interarrivalMs * 1_000_000, haircutMs * 1_000_000, seed);
+		long start = System.nanoTime();
+		o.run(numArrivals);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println("arrivals="+o.getArrivals()+" barbers="+barbers+" chairs="+chairs
+				+" interarrival="+interarrivalMs+"ms haircut="+haircutMs+"ms seed="+seed);
+		System.out.printf(Locale.ROOT, "served=%d balked=%d (%.2f%%) virtual time=%.1fh%n",
+				o.getServed(), o.getBalked(), 100.0 * o.getBalked() / Math.max(1, o.getArrivals()),
+				o.getTime() / 3.6e12);
+
+		double[] share = o.queueLengthDistribution();
+		double mean = 0;
+		StringBuilder sb = new StringBuilder("queue length");
+		for(int n=0; n<share.length; n++) {
+			sb.append(String.format(Locale.ROOT, " %d:%.2f%%", n, 100 * share[n]));
+			mean += n * share[n];
+		}
+		System.out.println(sb.append(String.format(Locale.ROOT, " mean=%.3f", mean)));
+		System.out.println("wait time "+o.waitTime());
+		System.out.printf(Locale.ROOT, "simulated in %dms, %.0f arrivals/s%n",
+				elapsed / 1_000_000, o.getArrivals() * 1e9 / elapsed);
+	}
+}
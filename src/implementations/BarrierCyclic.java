@@ -1,69 +1,231 @@
 package implementations;
 
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 /*
- * Class makes multiples threads to wait at a barrier 
+ * Class makes multiples threads to wait at a barrier
  * until 'x' threads have reached the barrier. after x
- * threads reach the barrier, it trips and threads are 
+ * threads reach the barrier, it trips and threads are
  * released
- * 
+ *
  * barrier then blocks till next x threads reach the barrier
- * 
- * Reponsibility - 
- * class to provide functionality to block until x threads 
- * reach the barrier. after barrier trips, it is reset 
- * automatically and block until next x threads reach the 
+ *
+ * Reponsibility -
+ * class to provide functionality to block until x threads
+ * reach the barrier. after barrier trips, it is reset
+ * automatically and block until next x threads reach the
  * barrier
- * 
+ *
  * BarrierCyclic(x)
- * await() - blocks until x threads reach barrier 
+ * BarrierCyclic(x, barrierAction) - barrierAction runs once per trip on the thread
+ * 		that tripped it, before anybody is released
+ * await() - blocks until x threads reach barrier
+ * await(timeout) - same, but gives up after the timeout
+ * register()/deregister() - add or remove a party, counts from the current phase
+ * getPhase() - the generation, starts at 0 and advances by one every time the barrier
+ * 		trips and every time reset() starts a fresh phase
+ *
+ * Broken barrier -
+ * if a waiting thread is interrupted or times out, or the barrier action throws, the
+ * others would wait forever for a party that is not coming. instead the barrier
+ * breaks - everybody waiting and everybody calling await later gets a
+ * BrokenBarrierException until reset() is called
+ *
+ * every phase has its own Generation object. threads wait until the generation they
+ * arrived in is over (tripped or broken), so threads of the next phase can start
+ * arriving as soon as the barrier trips without mixing with the ones being released
+ *
+ * state is guarded by a ReentrantLock and waiters wait on its condition, not on the
+ * monitor, so virtual threads parked at the barrier don't pin their carrier threads
  */
 
 public class BarrierCyclic {
-	
+
+	private static class Generation {
+		boolean broken;
+	}
+
 	int countThreadsAtBarrier;
-	int countThreadsToRelease;
-	final int MAX_THREADS;
-	
+	int parties;
+	int phase;
+	Generation generation;
+	final Runnable barrierAction;
+	private final Lock lock;
+	private final Condition tripped;	//generation over, tripped or broken
+
 	BarrierCyclic(int x) {
-		this.MAX_THREADS = x;
+		this(x, null);
+	}
+
+	BarrierCyclic(int x, Runnable barrierAction) {
+		if(x <= 0)
+			throw new IllegalArgumentException("parties should be positive, got "+x);
+		this.parties = x;
 		this.countThreadsAtBarrier = 0;
-		this.countThreadsToRelease = 0;
+		this.phase = 0;
+		this.generation = new Generation();
+		this.barrierAction = barrierAction;
+		this.lock = new ReentrantLock();
+		this.tripped = lock.newCondition();
 	}
-	
-	public synchronized void await() throws InterruptedException {
-		
-		//this is prevent any threads moving forward 
-		//if previous x threads are not released
-		while(countThreadsAtBarrier == MAX_THREADS)
-			wait();
-		
+
+	public void await() throws InterruptedException, BrokenBarrierException {
+		lock.lock();
+		try {
+			doAwait(false, 0L);
+		} catch(TimeoutException e) {
+			throw new IllegalStateException(e);	//can't happen without timeout
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void await(long timeout, TimeUnit unit) throws InterruptedException, BrokenBarrierException, TimeoutException {
+		lock.lock();
+		try {
+			doAwait(true, System.nanoTime() + unit.toNanos(timeout));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void doAwait(boolean timed, long deadline) throws InterruptedException, BrokenBarrierException, TimeoutException {
+		Generation g = generation;
+		if(g.broken)
+			throw new BrokenBarrierException();
+		if(Thread.interrupted()) {
+			breakBarrier();
+			throw new InterruptedException();
+		}
+
 		countThreadsAtBarrier++;
-		
-		if(countThreadsAtBarrier < MAX_THREADS) {
-			//wait till all the threads reach barrier
-			while(countThreadsAtBarrier < MAX_THREADS)
-				wait();
-		} else {
-			countThreadsToRelease = MAX_THREADS;
-			//this is to notify all the threads stuck at ln 45
-			//tell them that all x threads have gathered at barrier
-			//so wake up
-			notifyAll();
+		if(countThreadsAtBarrier == parties) {
+			trip();
+			return;
+		}
+
+		//wait till all the threads reach barrier
+		while(g == generation && !g.broken) {
+			try {
+				if(!timed) {
+					tripped.await();
+				} else {
+					long nanos = deadline - System.nanoTime();
+					if(nanos <= 0) {
+						breakBarrier();
+						throw new TimeoutException();
+					}
+					tripped.awaitNanos(nanos);
+				}
+			} catch(InterruptedException e) {
+				if(g == generation && !g.broken) {
+					breakBarrier();
+					throw e;
+				}
+				//barrier tripped or broke anyway, keep the interrupt for later
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if(g.broken)
+			throw new BrokenBarrierException();
+	}
+
+	//called by the thread that completes the phase
+	private void trip() {
+		if(barrierAction != null) {
+			try {
+				barrierAction.run();
+			} catch(RuntimeException | Error e) {
+				breakBarrier();
+				throw e;
+			}
 		}
-		
-		countThreadsToRelease--;
-		
-		//setting countThreadsAtBarrier gives illusion 
-		//that all threads are released at the same time
-		//more importantly, it prevents other threads from 
-		//proceeding past ln 37, when already x threads have
-		//reached the barrier and while some of them are yet
-		//to be released
-		if(countThreadsToRelease == 0) {
-			countThreadsAtBarrier = 0;
-			//this is to notify all the next set threads that were stuck 
-			//at ln 37 while current set of x threads are getting released
-			notifyAll();				
+
+		countThreadsAtBarrier = 0;
+		phase++;
+		generation = new Generation();
+		//wake up everybody of the phase that just ended
+		tripped.signalAll();
+	}
+
+	private void breakBarrier() {
+		generation.broken = true;
+		countThreadsAtBarrier = 0;
+		tripped.signalAll();
+	}
+
+	//breaks the barrier for threads waiting now and starts a fresh phase
+	public void reset() {
+		lock.lock();
+		try {
+			breakBarrier();
+			phase++;
+			generation = new Generation();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//adds a party that has to arrive starting with the current phase
+	//returns the phase it joined
+	public int register() {
+		lock.lock();
+		try {
+			parties++;
+			return phase;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//removes a party that hasn't arrived in the current phase
+	//if everybody else already arrived, the barrier trips now
+	public int deregister() {
+		lock.lock();
+		try {
+			if(parties == 1)
+				throw new IllegalStateException("last party can't deregister");
+			parties--;
+			int p = phase;
+			if(countThreadsAtBarrier > 0 && countThreadsAtBarrier == parties && !generation.broken)
+				trip();
+			return p;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//generation, trips plus resets. register/deregister report the same number
+	public int getPhase() {
+		lock.lock();
+		try {
+			return phase;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getParties() {
+		lock.lock();
+		try {
+			return parties;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isBroken() {
+		lock.lock();
+		try {
+			return generation.broken;
+		} finally {
+			lock.unlock();
 		}
 	}
 }
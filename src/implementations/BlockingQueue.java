@@ -1,54 +1,373 @@
 package implementations;
 
 import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
- * Responsibility - 
+ * Responsibility -
  * Blocks the caller of enqueue if there is no more capacity in it
  * Blocks the caller of dequeue if there are no more items in it
- * 
+ *
  * Signals the blocked caller of enqueue when space is available
  * Signals the blocked caller of deque when items are available
+ *
+ * producers wait on notFull and consumers wait on notEmpty, so a poll only
+ * wakes a blocked producer and an offer only wakes a blocked consumer
+ * (with a single monitor and notifyAll every waiter of both kinds wakes up)
+ *
+ * offerAll/drainTo move many items per lock acquisition
+ *
+ * how a thread waits is chosen at construction with a WaitStrategy. BLOCKING (default)
+ * waits on the conditions, the other strategies release the lock and poll count
+ * until the queue looks ready, then take the lock and check again
+ *
+ * offer(o, timeout)/poll(timeout) give up after the timeout
+ * tryOffer/tryPoll never wait for space or items
+ *
+ * enableMetrics(name) counts completed offers/polls (a batch counts once), how many of
+ * them had to wait and for how long, see SyncMetrics. depth is the number of items
  */
 
-public class BlockingQueue<T> {
+public class BlockingQueue<T> implements BoundedQueue<T> {
 	Queue<T> queue;
 	int capacity;
-	
+
+	Lock lock;
+	Condition notFull;
+	Condition notEmpty;
+
+	final WaitStrategy waitStrategy;
+
+	//copy of queue.size() that polling waiters can read without taking the lock
+	volatile int count;
+
+	//null while metrics are disabled
+	private volatile SyncMetrics metrics;
+
 	public BlockingQueue(int capacity) {
+		this(capacity, WaitStrategy.BLOCKING);
+	}
+
+	public BlockingQueue(int capacity, WaitStrategy waitStrategy) {
 		this.capacity = capacity;
 		queue = new ArrayDeque<T>(capacity);
+		this.lock = new ReentrantLock();
+		this.notFull = lock.newCondition();
+		this.notEmpty = lock.newCondition();
+		this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy");
+		this.count = 0;
 	}
-	
-	public synchronized void offer(T o) throws InterruptedException {
-		while(queue.size() == this.capacity) {
-			this.wait();
+
+	@Override
+	public void offer(T o) throws InterruptedException {
+		lock.lock();
+		try {
+			waitForSpace(false, 0L);
+			enqueue(o);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//returns false if there was no space before the timeout
+	public boolean offer(T o, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		lock.lock();
+		try {
+			if(!waitForSpace(true, deadline))
+				return false;
+			enqueue(o);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean tryOffer(T o) {
+		lock.lock();
+		try {
+			if(queue.size() == this.capacity)
+				return false;
+			enqueue(o);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public T poll() throws InterruptedException {
+		lock.lock();
+		try {
+			waitForItem(false, 0L);
+			return dequeue();
+		} finally {
+			lock.unlock();
 		}
-		queue.offer(o);
-		this.notifyAll();
 	}
-	
-	public synchronized T poll() throws InterruptedException {
-		while(queue.isEmpty()) {
-			this.wait();
+
+	//returns null if no item arrived before the timeout
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		lock.lock();
+		try {
+			if(!waitForItem(true, deadline))
+				return null;
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public T tryPoll() {
+		lock.lock();
+		try {
+			if(queue.isEmpty())
+				return null;
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//adds all the items, blocks whenever the queue is full
+	//as many items as fit are added per lock hold. if it has to wait, items of other
+	//producers can get in between, so the batch is not guaranteed to be contiguous
+	public void offerAll(Collection<? extends T> items) throws InterruptedException {
+		Iterator<? extends T> it = items.iterator();
+		if(!it.hasNext())
+			return;
+
+		lock.lock();
+		try {
+			while(it.hasNext()) {
+				waitForSpace(false, 0L);
+
+				int added = 0;
+				while(it.hasNext() && queue.size() < this.capacity) {
+					queue.offer(it.next());
+					added++;
+				}
+				count = queue.size();
+
+				//one consumer per new item at most
+				for(int i=0; i<added; i++)
+					notEmpty.signal();
+			}
+
+			SyncMetrics m = metrics;
+			if(m != null)
+				m.acquired();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//blocks until at least one item is available, then moves up to max items to c
+	//in one lock hold. returns the number of items moved
+	public int drainTo(Collection<? super T> c, int max) throws InterruptedException {
+		if(max <= 0)
+			return 0;
+
+		lock.lock();
+		try {
+			waitForItem(false, 0L);
+
+			int moved = 0;
+			while(moved < max && !queue.isEmpty()) {
+				c.add(queue.poll());
+				moved++;
+			}
+			count = queue.size();
+
+			for(int i=0; i<moved; i++)
+				notFull.signal();
+
+			SyncMetrics m = metrics;
+			if(m != null)
+				m.acquired();
+			return moved;
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	//enqueue/dequeue are called with the lock held and space/item available
+	private void enqueue(T o) {
+		queue.offer(o);
+		count = queue.size();
+		notEmpty.signal();
+
+		SyncMetrics m = metrics;
+		if(m != null)
+			m.acquired();
+	}
+
+	private T dequeue() {
 		T ret = queue.poll();
-		this.notifyAll();
+		count = queue.size();
+		notFull.signal();
+
+		SyncMetrics m = metrics;
+		if(m != null)
+			m.acquired();
 		return ret;
 	}
-	
+
+	//waitForSpace/waitForItem are called with the lock held and return with it held
+	//they wait until the queue has space/an item, false if the deadline passed first
+	//only a thread that really waits is timed by the metrics
+	private boolean waitForSpace(boolean timed, long deadline) throws InterruptedException {
+		if(queue.size() < this.capacity)
+			return true;
+
+		SyncMetrics m = metrics;
+		long start = (m != null) ? m.waitStarted() : 0L;
+		try {
+			while(queue.size() == this.capacity) {
+				if(!awaitNotFull(timed, deadline)) {
+					if(m != null)
+						m.timedOut();
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			if(m != null)
+				m.waitEnded(start);
+		}
+	}
+
+	private boolean waitForItem(boolean timed, long deadline) throws InterruptedException {
+		if(!queue.isEmpty())
+			return true;
+
+		SyncMetrics m = metrics;
+		long start = (m != null) ? m.waitStarted() : 0L;
+		try {
+			while(queue.isEmpty()) {
+				if(!awaitNotEmpty(timed, deadline)) {
+					if(m != null)
+						m.timedOut();
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			if(m != null)
+				m.waitEnded(start);
+		}
+	}
+
+	//awaitNotFull/awaitNotEmpty are called with the lock held and return with it held
+	//they wait one round, the caller re-checks the queue. return false if the deadline passed
+	private boolean awaitNotFull(boolean timed, long deadline) throws InterruptedException {
+		if(waitStrategy == WaitStrategy.BLOCKING) {
+			if(!timed) {
+				notFull.await();
+				return true;
+			}
+			long nanos = deadline - System.nanoTime();
+			if(nanos <= 0)
+				return false;
+			notFull.awaitNanos(nanos);
+			return true;
+		}
+
+		lock.unlock();
+		try {
+			int attempt = 0;
+			while(count == this.capacity) {
+				if(Thread.interrupted())
+					throw new InterruptedException();
+				if(timed && deadline - System.nanoTime() <= 0)
+					return false;
+				waitStrategy.idle(attempt++);
+			}
+			return true;
+		} finally {
+			lock.lock();
+		}
+	}
+
+	private boolean awaitNotEmpty(boolean timed, long deadline) throws InterruptedException {
+		if(waitStrategy == WaitStrategy.BLOCKING) {
+			if(!timed) {
+				notEmpty.await();
+				return true;
+			}
+			long nanos = deadline - System.nanoTime();
+			if(nanos <= 0)
+				return false;
+			notEmpty.awaitNanos(nanos);
+			return true;
+		}
+
+		lock.unlock();
+		try {
+			int attempt = 0;
+			while(count == 0) {
+				if(Thread.interrupted())
+					throw new InterruptedException();
+				if(timed && deadline - System.nanoTime() <= 0)
+					return false;
+				waitStrategy.idle(attempt++);
+			}
+			return true;
+		} finally {
+			lock.lock();
+		}
+	}
+
 	//size can change when other is trying to modify the queue concurrently
-	public synchronized int size() {
-		return queue.size();
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
 	}
-	
+
+	@Override
 	public int capacity() {
 		return this.capacity;
 	}
-	
+
+	//starts counting, see SyncMetrics. the metrics are registered as MBean under name
+	//throws IllegalArgumentException if another one uses the name
+	public SyncMetrics enableMetrics(String name) {
+		disableMetrics();
+		SyncMetrics m = SyncMetrics.register("BlockingQueue", name, () -> count);
+		metrics = m;
+		return m;
+	}
+
+	public void disableMetrics() {
+		SyncMetrics old = metrics;
+		metrics = null;
+		if(old != null)
+			old.unregister();
+	}
+
+	//null while metrics are disabled
+	public SyncMetrics getMetrics() {
+		return metrics;
+	}
+
 	//since size can change when other thread is trying to modify queue concurrently
-	public synchronized boolean isEmpty() {
-		return queue.size()==0;
+	@Override
+	public boolean isEmpty() {
+		return size()==0;
 	}
 }
@@ -0,0 +1,33 @@
+package implementations;
+
+/*
+ * Contract shared by the bounded queues in this package
+ * 
+ * offer() - adds an item, blocks while the queue is full
+ * poll() - removes an item, blocks while the queue is empty
+ * tryOffer() - adds an item if there is space, returns false otherwise
+ * tryPoll() - removes an item if there is one, returns null otherwise
+ * 
+ * the blocking and the non-blocking calls can be mixed, an item added by tryOffer
+ * wakes a consumer blocked in poll and a slot freed by tryPoll wakes a producer
+ * blocked in offer, like offer and poll do
+ * 
+ * size() and isEmpty() are only a snapshot, other threads can change the
+ * queue right after the call returns
+ */
+public interface BoundedQueue<T> {
+	
+	public abstract void offer(T o) throws InterruptedException;
+	
+	public abstract T poll() throws InterruptedException;
+	
+	public abstract boolean tryOffer(T o);
+	
+	public abstract T tryPoll();
+	
+	public abstract int size();
+	
+	public abstract int capacity();
+	
+	public abstract boolean isEmpty();
+}
@@ -1,5 +1,9 @@
 package implementations;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 /*
  * a semaphore class with max permits
  * different from java-Semaphore in the sense that java semaphore only has
@@ -15,6 +19,14 @@ package implementations;
  * release() - releases a permit, blocks if no permit is acquired
  * 
  * allows user to specify max_permits and initial available permits
+ * 
+ * waits on lock conditions instead of the monitor (synchronized/wait), a virtual thread
+ * waiting here unmounts from its carrier instead of pinning it
+ * acquirers and releasers wait on separate conditions, one permit moving wakes one
+ * thread of the other side
+ * 
+ * enableMetrics(name) counts acquires, how many of them had to wait and for how long,
+ * see SyncMetrics. depth is the number of available permits
  */
 
 public class CountingSemaphore {
@@ -22,29 +34,96 @@ public class CountingSemaphore {
 	private int availablePermits;
 	private final int MAX_PERMITS;
 	
+	private final Lock lock;
+	private final Condition permitsAvailable;	//acquirers wait here
+	private final Condition roomAvailable;		//releasers wait here
+	
+	//null while metrics are disabled
+	private volatile SyncMetrics metrics;
+	
 	public CountingSemaphore(int maxpermits, int availablepermits) {
 		this.MAX_PERMITS = maxpermits;
 		this.availablePermits = availablepermits;
+		this.lock = new ReentrantLock();
+		this.permitsAvailable = lock.newCondition();
+		this.roomAvailable = lock.newCondition();
+	}
+	
+	public void acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			if(availablePermits == 0)
+				waitForPermit();
+			
+			availablePermits--;
+			roomAvailable.signal();
+			
+			SyncMetrics m = metrics;
+			if(m != null)
+				m.acquired();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public void release() throws InterruptedException {
+		lock.lock();
+		try {
+			while(availablePermits == MAX_PERMITS) {
+				roomAvailable.await();
+			}
+			
+			availablePermits++;
+			permitsAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
 	}
 	
-	public synchronized void acquire() throws InterruptedException {
-		while(availablePermits == 0)
-			this.wait();
-		
-		availablePermits--;
-		this.notifyAll();
+	//called with the lock held, only a thread that really waits is timed by the metrics
+	private void waitForPermit() throws InterruptedException {
+		SyncMetrics m = metrics;
+		long start = (m != null) ? m.waitStarted() : 0L;
+		try {
+			while(availablePermits == 0)
+				permitsAvailable.await();
+		} finally {
+			if(m != null)
+				m.waitEnded(start);
+		}
 	}
 	
-	public synchronized void release() throws InterruptedException {
-		while(availablePermits == MAX_PERMITS) {
-			this.wait();
+	public int availablePermits() {
+		lock.lock();
+		try {
+			return availablePermits;
+		} finally {
+			lock.unlock();
 		}
-		
-		availablePermits++;
-		this.notifyAll();
 	}
 	
 	public int getMaxPermits() {
 		return this.MAX_PERMITS;
 	}
+	
+	//starts counting, see SyncMetrics. the metrics are registered as MBean under name
+	//throws IllegalArgumentException if another one uses the name
+	public SyncMetrics enableMetrics(String name) {
+		disableMetrics();
+		SyncMetrics m = SyncMetrics.register("CountingSemaphore", name, this::availablePermits);
+		metrics = m;
+		return m;
+	}
+	
+	public void disableMetrics() {
+		SyncMetrics old = metrics;
+		metrics = null;
+		if(old != null)
+			old.unregister();
+	}
+	
+	//null while metrics are disabled
+	public SyncMetrics getMetrics() {
+		return metrics;
+	}
 }
@@ -0,0 +1,227 @@
+package implementations;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Diagnostic output without printing on the hot path
+ *
+ * System.out.println inside a critical section makes every thread queue on the stdout
+ * lock while it holds its own lock, a microsecond section takes milliseconds
+ *
+ * here a class registers the messages it prints once, as formats -
+ * 	static final int GOT_TOKEN = EventJournal.event("Got token at {}");
+ * and logging one is writing a fixed size record (time, event, 2 long args, thread name)
+ * into a preallocated ring buffer -
+ * 	EventJournal.log(GOT_TOKEN, System.currentTimeMillis());
+ * no string is built and nothing is allocated. a daemon drainer thread empties the
+ * buffers every DRAIN_INTERVAL, sorts the records of a pass by time, formats and prints
+ * them. a shutdown hook drains whatever is left, flush() does it on demand (call it
+ * before printing anything that has to come after the logged events)
+ *
+ * formats - {} is replaced by the next long argument, {thread} by the name of the thread
+ * that logged the record
+ *
+ * buffers are picked by thread id, so platform threads practically have one each.
+ * there are a fixed number of them and not one per thread, a million virtual threads
+ * share them instead of allocating a million rings. a record slot is claimed with one
+ * CAS and published with a sequence number per slot, the drainer only reads published
+ * slots. a full buffer drops the record and counts it, logging never blocks
+ *
+ * off switch - -Dimplementations.journal=false. ENABLED is a static final, with it
+ * false the JIT removes the logging calls and no drainer is started
+ */
+public final class EventJournal {
+
+	public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("implementations.journal", "true"));
+
+	private static final int RECORD = 4;			//longs per record - time, event, a, b
+	private static final int BUFFER_RECORDS = Integer.getInteger("implementations.journal.records", 1 << 12);
+	private static final long DRAIN_INTERVAL = 10_000_000;	//ns
+
+	private static final List<String[]> formats = new ArrayList<>();	//split at the placeholders
+	private static final ReentrantLock drainLock = new ReentrantLock();		//also guards formats
+	private static final LongAdder dropped = new LongAdder();
+	private static PrintStream out = System.out;
+
+	//ring of one stripe of threads, many writers and the drainer as only reader
+	private static class Buffer {
+		final long[] records;
+		final String[] threads;
+		final AtomicLongArray sequences;	//== position free, == position+1 published
+		final AtomicLong tail;
+		long head;							//drainer only
+		final int mask;
+
+		Buffer(int size) {
+			this.records = new long[size * RECORD];
+			this.threads = new String[size];
+			this.sequences = new AtomicLongArray(size);
+			for(int i=0; i<size; i++)
+				sequences.set(i, i);
+			this.tail = new PaddedAtomicLong(0);
+			this.head = 0;
+			this.mask = size - 1;
+		}
+
+		void write(int event, long a, long b) {
+			while(true) {
+				long pos = tail.get();
+				int idx = (int) (pos & mask);
+				long seq = sequences.get(idx);
+				if(seq < pos) {
+					dropped.increment();	//full, drainer hasn't read this slot yet
+					return;
+				}
+				if(seq == pos && tail.compareAndSet(pos, pos + 1)) {
+					int r = idx * RECORD;
+					records[r] = System.nanoTime();
+					records[r + 1] = event;
+					records[r + 2] = a;
+					records[r + 3] = b;
+					threads[idx] = Thread.currentThread().getName();
+					sequences.set(idx, pos + 1);
+					return;
+				}
+			}
+		}
+
+		//moves the published records to dst as {time, event, a, b} plus the thread name
+		void drainTo(List<Object[]> dst) {
+			while(true) {
+				int idx = (int) (head & mask);
+				if(sequences.get(idx) != head + 1)
+					return;
+				int r = idx * RECORD;
+				dst.add(new Object[] {records[r], records[r + 1], records[r + 2], records[r + 3], threads[idx]});
+				threads[idx] = null;
+				sequences.set(idx, head + mask + 1);
+				head++;
+			}
+		}
+	}
+
+	//buffers and drainer exist only once the journal is used with ENABLED true
+	private static class Buffers {
+		static final Buffer[] BUFFERS;
+
+		static {
+			int n = 1;
+			while(n < Runtime.getRuntime().availableProcessors() * 4)
+				n <<= 1;
+			int size = 1;
+			while(size < BUFFER_RECORDS)
+				size <<= 1;
+
+			BUFFERS = new Buffer[n];
+			for(int i=0; i<n; i++)
+				BUFFERS[i] = new Buffer(size);
+
+			Thread drainer = new Thread(() -> {
+				while(true) {
+					LockSupport.parkNanos(DRAIN_INTERVAL);
+					drain();
+				}
+			});
+			drainer.setName("Event journal drainer");
+			drainer.setDaemon(true);
+			drainer.start();
+
+			Runtime.getRuntime().addShutdownHook(new Thread(EventJournal::drain, "Event journal flush"));
+		}
+
+		static Buffer current() {
+			long id = Thread.currentThread().getId();
+			int h = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+			return BUFFERS[h & (BUFFERS.length - 1)];
+		}
+	}
+
+	private EventJournal() {
+	}
+
+	//registers a format, returns the event id to log it with
+	public static int event(String format) {
+		String[] parts = format.split("(?=\\{\\}|\\{thread\\})|(?<=\\{\\}|\\{thread\\})", -1);
+		drainLock.lock();
+		try {
+			formats.add(parts);
+			return formats.size() - 1;
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	public static void log(int event) {
+		if(ENABLED)
+			Buffers.current().write(event, 0, 0);
+	}
+
+	public static void log(int event, long a) {
+		if(ENABLED)
+			Buffers.current().write(event, a, 0);
+	}
+
+	public static void log(int event, long a, long b) {
+		if(ENABLED)
+			Buffers.current().write(event, a, b);
+	}
+
+	//prints everything logged so far
+	public static void flush() {
+		if(ENABLED)
+			drain();
+	}
+
+	//where the drainer prints, System.out by default
+	public static void setOutput(PrintStream stream) {
+		drainLock.lock();
+		try {
+			out = stream;
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	private static void drain() {
+		drainLock.lock();
+		try {
+			List<Object[]> batch = new ArrayList<>();
+			for(Buffer b: Buffers.BUFFERS)
+				b.drainTo(batch);
+			batch.sort((x, y) -> Long.compare((Long) x[0], (Long) y[0]));
+
+			StringBuilder sb = new StringBuilder();
+			for(Object[] r: batch) {
+				format(sb, formats.get((int) (long) (Long) r[1]), (Long) r[2], (Long) r[3], (String) r[4]);
+				out.println(sb);
+				sb.setLength(0);
+			}
+
+			long d = dropped.sumThenReset();
+			if(d > 0)
+				out.println("[event journal dropped "+d+" records, buffers full]");
+			out.flush();
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	private static void format(StringBuilder sb, String[] parts, long a, long b, String thread) {
+		int arg = 0;
+		for(String p: parts) {
+			if(p.equals("{}"))
+				sb.append(arg++ == 0 ? a : b);
+			else if(p.equals("{thread}"))
+				sb.append(thread);
+			else
+				sb.append(p);
+		}
+	}
+}
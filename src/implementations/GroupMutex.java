@@ -0,0 +1,341 @@
+package implementations;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Group mutual exclusion (session lock) - UnisexBathroom for any number of groups
+ *
+ * threads enter a session, any number of sessions 0 .. sessions-1 exist
+ * 	threads of the same session can be inside together, up to that session's capacity
+ * 	threads of different sessions are never inside together
+ * e.g. maintenance jobs and online traffic of a shard, or males and females of
+ * UnisexBathroom
+ *
+ * enter(session) - blocks until the session can be entered
+ * tryEnter(session) - enters only if that is possible right now
+ * exit(session) - leaves, the caller must have entered that session
+ *
+ * state is one AtomicLong -
+ * 	bits 0-30	number of threads inside
+ * 	bit 31		closed, the session inside takes nobody new, it drains and hands over
+ * 	bits 32-47	session inside + 1 (the session that was inside last while empty)
+ * 	bits 48-63	threads that entered during this turn of the session, stops at 0xFFFF
+ * entering and leaving is a CAS on it, a thread that can go in right away never takes
+ * the lock
+ *
+ * a thread that can't go in takes the lock, counts itself in waiting[session] and waits
+ * on its session's condition. waiters are let in by whoever changes the state under the
+ * lock - the place is counted in state, granted[session] is incremented and one waiter
+ * of the session is signalled, so a wakeup only goes to a thread that is already in
+ * 	a thread leaves and its session is still inside and open - one waiter of the same
+ * 		session gets the freed place
+ * 	the last thread leaves - the next session (see Policy) gets the lock with up to
+ * 		capacity of its waiters inside at once
+ * the waiter counts itself and tries again before waiting, the leaver changes state and
+ * then reads totalWaiting, so either the waiter gets in or the leaver sees it
+ *
+ * Who goes next when other sessions are waiting is decided by the Policy given to the
+ * constructor -
+ * GREEDY (default) - a thread goes in whenever its session is inside and not full, even
+ * 		if other sessions are waiting. the next session is picked round robin. most
+ * 		throughput, but a session that never empties starves the others
+ * ALTERNATE - once another session is waiting the session inside is closed, it drains
+ * 		and the next waiting session (round robin) goes in. sessions take turns as soon
+ * 		as there is contention, no starvation but more handovers
+ * BATCH - like ALTERNATE, but the session inside is closed only after bound threads
+ * 		entered during its turn. wait of the others is bounded by bound entries
+ * AGE - the session inside is closed once a waiter of another session has waited for
+ * 		bound ns, the session waiting the longest goes next. wait is bounded in time
+ * 		instead of entries. age of a session is counted from when its waiting started
+ * 		without a break, so it's the age of its oldest waiter or a bit more
+ * with a policy other than GREEDY a thread takes the CAS fast path only while nobody
+ * waits, with waiters around entering goes through the lock where the policy is applied
+ *
+ * GroupMutexBenchmark measures per session throughput and waits of each policy
+ */
+public class GroupMutex {
+
+	public enum Policy {
+		GREEDY,
+		ALTERNATE,
+		BATCH,
+		AGE
+	}
+
+	public static final int DEFAULT_BATCH = 64;
+	public static final long DEFAULT_AGE = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final long OCCUPANCY = 0x7FFF_FFFFL;
+	private static final long CLOSED = 1L << 31;
+	private static final int SESSION_SHIFT = 32;
+	private static final int ENTRIES_SHIFT = 48;
+	private static final long MAX_ENTRIES = 0xFFFF;
+
+	private final int[] capacity;
+	private final Policy policy;
+	private final long bound;			//entries for BATCH, ns for AGE
+	private final AtomicLong state;
+
+	private final ReentrantLock lock;
+	private final Condition[] sessionReady;		//one per session
+	private final int[] waiting;				//per session, changed under lock
+	private final int[] granted;				//per session, let in but not woken up yet
+	private final long[] waitingSince;			//per session, valid while waiting > 0
+	private volatile int totalWaiting;
+
+	//sessions sessions, each with the same capacity
+	public GroupMutex(int sessions, int capacity) {
+		this(filled(sessions, capacity));
+	}
+
+	//one session per entry, capacity[s] threads of session s can be inside together
+	public GroupMutex(int[] capacity) {
+		this(capacity, Policy.GREEDY);
+	}
+
+	public GroupMutex(int[] capacity, Policy policy) {
+		this(capacity, policy, (policy == Policy.AGE) ? DEFAULT_AGE : DEFAULT_BATCH);
+	}
+
+	//bound is the batch size for BATCH and the max wait in ns for AGE, ignored otherwise
+	public GroupMutex(int[] capacity, Policy policy, long bound) {
+		if(capacity.length == 0 || capacity.length >= 0xFFFF)
+			throw new IllegalArgumentException("sessions should be between 1 and "+(0xFFFF-1)+", got "+capacity.length);
+		for(int c: capacity)
+			if(c <= 0)
+				throw new IllegalArgumentException("capacity should be positive, got "+c);
+		if(policy == Policy.BATCH && (bound <= 0 || bound > MAX_ENTRIES))
+			throw new IllegalArgumentException("batch should be between 1 and "+MAX_ENTRIES+", got "+bound);
+		if(policy == Policy.AGE && bound < 0)
+			throw new IllegalArgumentException("max wait can't be negative, got "+bound);
+
+		this.capacity = capacity.clone();
+		this.policy = policy;
+		this.bound = bound;
+		this.state = new PaddedAtomicLong(0);
+		this.lock = new ReentrantLock();
+		this.sessionReady = new Condition[capacity.length];
+		for(int s=0; s<capacity.length; s++)
+			sessionReady[s] = lock.newCondition();
+		this.waiting = new int[capacity.length];
+		this.granted = new int[capacity.length];
+		this.waitingSince = new long[capacity.length];
+		this.totalWaiting = 0;
+	}
+
+	private static int[] filled(int sessions, int capacity) {
+		if(sessions <= 0)
+			throw new IllegalArgumentException("sessions should be positive, got "+sessions);
+		int[] c = new int[sessions];
+		Arrays.fill(c, capacity);
+		return c;
+	}
+
+	public void enter(int session) throws InterruptedException {
+		checkSession(session);
+		if(tryEnter(session))
+			return;
+
+		lock.lock();
+		try {
+			if(waiting[session]++ == 0)
+				waitingSince[session] = System.nanoTime();
+			totalWaiting++;
+			boolean interrupted = false;
+			try {
+				admit();
+				//take a place right away only if there is one for every waiter of the
+				//session, otherwise it belongs to a waiter that was signalled before us
+				if(granted[session] < waiting[session]) {
+					do {
+						try {
+							sessionReady[session].await();
+						} catch(InterruptedException e) {
+							//a place can be granted to us while we were being interrupted
+							if(granted[session] < waiting[session])
+								throw e;
+							interrupted = true;
+						}
+					} while(granted[session] == 0);
+				}
+				granted[session]--;
+			} finally {
+				waiting[session]--;
+				totalWaiting--;
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		} catch(InterruptedException e) {
+			//leaving may have changed what the policy decides, pass it on
+			admit();
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean tryEnter(int session) {
+		checkSession(session);
+		if(policy != Policy.GREEDY && totalWaiting > 0)
+			return false;
+
+		long id = id(session);
+		while(true) {
+			long s = state.get();
+			long inside = s & OCCUPANCY;
+			if(inside == 0) {
+				if(state.compareAndSet(s, id | 1 | (1L << ENTRIES_SHIFT)))
+					return true;
+			} else if(session(s) == session && (s & CLOSED) == 0 && inside < capacity[session]) {
+				if(state.compareAndSet(s, joined(s)))
+					return true;
+			} else {
+				return false;
+			}
+		}
+	}
+
+	public void exit(int session) {
+		checkSession(session);
+		while(true) {
+			long s = state.get();
+			long inside = s & OCCUPANCY;
+			if(session(s) != session || inside == 0)
+				throw new IllegalMonitorStateException("session "+session+" is not inside");
+			//the last one out keeps only the session, for the round robin
+			if(state.compareAndSet(s, (inside == 1) ? id(session) : s - 1))
+				break;
+		}
+
+		if(totalWaiting > 0) {
+			lock.lock();
+			try {
+				admit();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	//called with the lock held after the state or the waiters changed, lets in the
+	//waiters that can go in now and closes the session inside if the policy says so
+	private void admit() {
+		while(true) {
+			long s = state.get();
+			long inside = s & OCCUPANCY;
+
+			if(inside == 0) {
+				if(totalWaiting == 0)
+					return;
+				int next = nextSession(session(s));
+				int n = Math.min(waiting[next], capacity[next]);
+				if(policy == Policy.BATCH)
+					n = (int) Math.min(n, bound);
+				long turn = id(next) | n | ((long) n << ENTRIES_SHIFT);
+				if(mustClose(next, n))
+					turn |= CLOSED;
+				if(state.compareAndSet(s, turn)) {
+					grant(next, n);
+					return;
+				}
+				continue;
+			}
+
+			int current = session(s);
+			if((s & CLOSED) != 0)
+				return;
+			if(mustClose(current, s >>> ENTRIES_SHIFT)) {
+				state.compareAndSet(s, s | CLOSED);
+				continue;
+			}
+			if(waiting[current] == granted[current] || inside >= capacity[current])
+				return;
+			if(state.compareAndSet(s, joined(s)))
+				grant(current, 1);
+		}
+	}
+
+	private void grant(int session, int n) {
+		granted[session] += n;
+		for(int i=0; i<n; i++)
+			sessionReady[session].signal();
+	}
+
+	//called with the lock held, whether the session inside should take nobody new
+	private boolean mustClose(int session, long entries) {
+		if(totalWaiting == waiting[session])
+			return false;	//no other session is waiting
+
+		switch(policy) {
+		case ALTERNATE:
+			return true;
+		case BATCH:
+			return entries >= bound;
+		case AGE:
+			long now = System.nanoTime();
+			for(int s=0; s<waiting.length; s++)
+				if(s != session && waiting[s] > 0 && now - waitingSince[s] >= bound)
+					return true;
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	//called with the lock held and somebody waiting, session that goes after last
+	private int nextSession(int last) {
+		int n = waiting.length;
+		int next = -1;
+		for(int i=1; i<=n; i++) {
+			int s = (last + i + n) % n;
+			if(waiting[s] == 0)
+				continue;
+			if(policy != Policy.AGE)
+				return s;
+			if(next == -1 || waitingSince[s] - waitingSince[next] < 0)
+				next = s;
+		}
+		return next;
+	}
+
+	private static long id(int session) {
+		return (long) (session + 1) << SESSION_SHIFT;
+	}
+
+	private static int session(long s) {
+		return (int) ((s >>> SESSION_SHIFT) & 0xFFFF) - 1;
+	}
+
+	//state after one more thread entered
+	private static long joined(long s) {
+		return ((s >>> ENTRIES_SHIFT) < MAX_ENTRIES) ? s + 1 + (1L << ENTRIES_SHIFT) : s + 1;
+	}
+
+	//session inside right now, -1 if nobody is inside. snapshot only
+	public int currentSession() {
+		long s = state.get();
+		return ((s & OCCUPANCY) == 0) ? -1 : session(s);
+	}
+
+	//threads inside right now, snapshot only
+	public int occupancy() {
+		return (int) (state.get() & OCCUPANCY);
+	}
+
+	public int sessions() {
+		return capacity.length;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	private void checkSession(int session) {
+		if(session < 0 || session >= capacity.length)
+			throw new IllegalArgumentException("session should be between 0 and "+(capacity.length-1)+", got "+session);
+	}
+}
@@ -0,0 +1,97 @@
+package implementations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Measures what each GroupMutex.Policy costs and how fair it is
+ *
+ * every session has the same number of threads, each of them keeps entering its
+ * session, doing a little work inside and leaving. there are more threads than
+ * capacity, so a session can stay inside forever under GREEDY
+ *
+ * for each policy it prints, per session -
+ * ops per second		entries that got through
+ * p99 and max wait		time from calling enter until getting in, p99 is the upper
+ * 				bound of its power of two bucket (see SyncMetrics)
+ * and the total ops per second of all sessions
+ *
+ * usage - GroupMutexBenchmark [sessions] [threads per session] [capacity] [seconds]
+ */
+public class GroupMutexBenchmark {
+
+	private static final int WORK = 200;		//iterations of busy work inside the session
+
+	static volatile long sink;
+
+	public static void main(String[] args) throws InterruptedException {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+		System.out.println("sessions="+sessions+" threads/session="+threads+" capacity="+capacity+" seconds="+seconds);
+		int[] capacities = new int[sessions];
+		Arrays.fill(capacities, capacity);
+		for(GroupMutex.Policy policy: GroupMutex.Policy.values()) {
+			run(new GroupMutex(capacities, policy), policy.name(), threads, seconds);
+		}
+	}
+
+	static void run(GroupMutex mutex, String name, int threads, int seconds) throws InterruptedException {
+		int sessions = mutex.sessions();
+		AtomicLongArray ops = new AtomicLongArray(sessions);
+		SyncMetrics.Histogram[] waits = new SyncMetrics.Histogram[sessions];
+		for(int s=0; s<sessions; s++)
+			waits[s] = new SyncMetrics.Histogram();
+
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		List<Thread> all = new ArrayList<>();
+
+		for(int s=0; s<sessions; s++) {
+			int session = s;
+			for(int i=0; i<threads; i++) {
+				all.add(new Thread(() -> {
+					long n = 0;
+					try {
+						long now;
+						while((now = System.nanoTime()) < end) {
+							mutex.enter(session);
+							waits[session].record(System.nanoTime() - now);
+							busyWork();
+							mutex.exit(session);
+							n++;
+						}
+					} catch(InterruptedException e) {
+						System.out.println("Interrupted thread "+Thread.currentThread().getName());
+					}
+					ops.addAndGet(session, n);
+				}));
+			}
+		}
+
+		for(Thread t: all)
+			t.start();
+		for(Thread t: all)
+			t.join();
+
+		StringBuilder sb = new StringBuilder();
+		long total = 0;
+		for(int s=0; s<sessions; s++) {
+			SyncMetrics.HistogramSnapshot w = waits[s].snapshot();
+			sb.append(String.format(" | s%d ops/s=%,d p99=%,dus max=%,dus",
+					s, ops.get(s) / seconds, w.percentile(99) / 1000, w.max / 1000));
+			total += ops.get(s);
+		}
+		System.out.printf("%-10s total ops/s=%,d%s%n", name, total / seconds, sb);
+	}
+
+	private static void busyWork() {
+		long x = 0;
+		for(int i=0; i<WORK; i++)
+			x += i * 31;
+		sink = x;
+	}
+}
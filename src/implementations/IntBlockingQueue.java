@@ -0,0 +1,59 @@
+package implementations;
+
+/*
+ * BlockingQueue specialized for int values
+ *
+ * same blocking behaviour as BlockingQueue (offer blocks when full, poll blocks
+ * when empty, producers and consumers wait on separate conditions) but items are
+ * kept in an int[] ring like the buffer of ProducerConsumer_CountingSemaphore, so
+ * nothing is boxed and offer/poll don't allocate
+ *
+ * offerAll/drainTo copy whole runs of the ring with System.arraycopy
+ * the ring and the waiting are in PrimitiveRingQueue, shared with the other primitive queues
+ */
+public class IntBlockingQueue extends PrimitiveRingQueue {
+
+	private final int[] buffer;
+
+	public IntBlockingQueue(int capacity) {
+		this(new int[checkCapacity(capacity)]);
+	}
+
+	private IntBlockingQueue(int[] buffer) {
+		super(buffer, buffer.length);
+		this.buffer = buffer;
+	}
+
+	public void offer(int v) throws InterruptedException {
+		lock.lock();
+		try {
+			buffer[awaitSpace()] = v;
+			added();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int poll() throws InterruptedException {
+		lock.lock();
+		try {
+			int ret = buffer[awaitItem()];
+			removed();
+			return ret;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//adds src[off] .. src[off+len-1], blocks whenever the queue is full
+	//as many values as fit are copied per lock hold
+	public void offerAll(int[] src, int off, int len) throws InterruptedException {
+		offerAll(src, src.length, off, len);
+	}
+
+	//blocks until at least one value is available, then copies up to max values
+	//into dst starting at off. returns the number of values copied
+	public int drainTo(int[] dst, int off, int max) throws InterruptedException {
+		return drainTo(dst, dst.length, off, max);
+	}
+}
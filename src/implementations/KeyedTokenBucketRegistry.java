@@ -0,0 +1,248 @@
+package implementations;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * One token bucket per key (client, tenant ...) for millions of keys
+ *
+ * TokenBucketFilterFactory gives one object per bucket, with its own monitor and for the
+ * generator based one its own thread. that doesn't work for a bucket per client
+ *
+ * Here a bucket is the same single number the lazy filter of TokenBucketFilterFactory
+ * uses, tat (theoretical arrival time, the time at which the bucket is full again), so
+ * a key costs a long for the key and a long for tat in two primitive arrays
+ * 	tryAcquire(key, n) takes n tokens of that key's bucket if they are available now
+ * 	estimatedWaitNanos(key, n) says how long n tokens of that key would take
+ *
+ * every key gets capacity tokens, refilled at one token per period
+ * a key nobody used yet has a full bucket. its entry is created on first use
+ *
+ * Table -
+ * keys are spread over segments, each segment is an open addressing table (linear
+ * probing) guarded by its own lock, so threads only meet when their keys land in
+ * the same segment. the segment is a ReentrantLock and not a monitor, a virtual thread
+ * contending for it parks instead of pinning its carrier. tat == 0 marks an empty slot, times are kept >= 1
+ *
+ * Eviction -
+ * a bucket that has been full for idleTimeout is the same as a bucket that was never
+ * used, so dropping its entry loses nothing. evictIdle() sweeps all segments, a segment
+ * that is about to grow sweeps itself first. call evictIdle() from a scheduler of your
+ * own to keep memory down when keys go away
+ *
+ * with load factor at most 0.75 an idle key costs 16 bytes plus the free slots, and no
+ * per key object is allocated
+ */
+public class KeyedTokenBucketRegistry {
+
+	private static final int INITIAL_SEGMENT_SIZE = 16;
+
+	private final long origin;		//System.nanoTime() when created, times below are relative to it
+	private final long period;		//ns per token
+	private final long burst;		//ns to refill from empty to capacity
+	private final long idleTimeout;	//ns a bucket stays full before its entry can be dropped
+
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	@SuppressWarnings("serial")
+	private static class Segment extends ReentrantLock {
+		long[] keys;
+		long[] tats;
+		int size;
+
+		Segment(int length) {
+			this.keys = new long[length];
+			this.tats = new long[length];
+			this.size = 0;
+		}
+	}
+
+	public KeyedTokenBucketRegistry(int capacity, long period, TimeUnit unit, long idleTimeout, TimeUnit idleUnit) {
+		this(capacity, period, unit, idleTimeout, idleUnit, Runtime.getRuntime().availableProcessors() * 16);
+	}
+
+	public KeyedTokenBucketRegistry(int capacity, long period, TimeUnit unit, long idleTimeout, TimeUnit idleUnit, int concurrency) {
+		if(capacity <= 0 || period <= 0 || idleTimeout < 0)
+			throw new IllegalArgumentException("capacity and period should be positive, idleTimeout not negative");
+
+		this.origin = System.nanoTime();
+		this.period = unit.toNanos(period);
+		this.burst = capacity * this.period;
+		this.idleTimeout = idleUnit.toNanos(idleTimeout);
+
+		int n = 1;
+		int bits = 0;
+		while(n < concurrency) {
+			n <<= 1;
+			bits++;
+		}
+		this.segments = new Segment[n];
+		for(int i=0; i<n; i++)
+			segments[i] = new Segment(INITIAL_SEGMENT_SIZE);
+		this.segmentShift = 64 - bits;
+	}
+
+	public boolean tryAcquire(long key) {
+		return tryAcquire(key, 1);
+	}
+
+	//takes n tokens of key's bucket if they are available now, false otherwise
+	public boolean tryAcquire(long key, int n) {
+		if(n <= 0)
+			throw new IllegalArgumentException("tokens should be positive, got "+n);
+
+		long h = mix(key);
+		Segment s = segmentFor(h);
+		s.lock();
+		try {
+			long now = now();
+			int idx = find(s, key, h);
+			long t = (idx >= 0) ? s.tats[idx] : 0;
+			long next = Math.max(t, now) + n * period;
+			if(next - now > burst)
+				return false;
+
+			if(idx >= 0)
+				s.tats[idx] = next;
+			else
+				insert(s, key, h, next, now);
+			return true;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	//how long until n tokens of key's bucket are available, 0 if they are available now
+	public long estimatedWaitNanos(long key, int n) {
+		long h = mix(key);
+		Segment s = segmentFor(h);
+		s.lock();
+		try {
+			long now = now();
+			int idx = find(s, key, h);
+			long t = (idx >= 0) ? s.tats[idx] : 0;
+			return Math.max(0, Math.max(t, now) + n * period - burst - now);
+		} finally {
+			s.unlock();
+		}
+	}
+
+	//drops the entries of buckets that have been full for idleTimeout
+	//returns the number of entries dropped
+	public int evictIdle() {
+		int evicted = 0;
+		for(Segment s: segments) {
+			s.lock();
+			try {
+				evicted += sweep(s, now());
+			} finally {
+				s.unlock();
+			}
+		}
+		return evicted;
+	}
+
+	//number of keys that have an entry, snapshot only
+	public int size() {
+		int size = 0;
+		for(Segment s: segments) {
+			s.lock();
+			try {
+				size += s.size;
+			} finally {
+				s.unlock();
+			}
+		}
+		return size;
+	}
+
+	private long now() {
+		return System.nanoTime() - origin + 1;	//>= 1, 0 marks an empty slot
+	}
+
+	private Segment segmentFor(long h) {
+		//with a single segment the shift is 64, which java treats as 0, the mask covers that
+		return segments[(int) (h >>> segmentShift) & (segments.length - 1)];
+	}
+
+	//index of key in s, or -1 if it has no entry
+	private int find(Segment s, long key, long h) {
+		int mask = s.keys.length - 1;
+		int i = (int) h & mask;
+		while(s.tats[i] != 0) {
+			if(s.keys[i] == key)
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(Segment s, long key, long h, long tat, long now) {
+		if((s.size + 1) * 4 > s.keys.length * 3) {
+			sweep(s, now);
+			if((s.size + 1) * 4 > s.keys.length * 3)
+				rehash(s, s.keys.length * 2, now);
+		}
+		put(s.keys, s.tats, key, h, tat);
+		s.size++;
+	}
+
+	private int sweep(Segment s, long now) {
+		int idle = 0;
+		for(int i=0; i<s.tats.length; i++) {
+			if(s.tats[i] != 0 && isIdle(s.tats[i], now))
+				idle++;
+		}
+		if(idle == 0)
+			return 0;
+
+		//rebuild from the live entries, also shrinks a segment whose keys went away
+		int length = INITIAL_SEGMENT_SIZE;
+		while((s.size - idle) * 2 > length)
+			length <<= 1;
+		rehash(s, length, now);
+		return idle;
+	}
+
+	//copies the entries that are not idle into new arrays of the given length
+	private void rehash(Segment s, int length, long now) {
+		long[] keys = new long[length];
+		long[] tats = new long[length];
+		int size = 0;
+		for(int i=0; i<s.tats.length; i++) {
+			long t = s.tats[i];
+			if(t != 0 && !isIdle(t, now)) {
+				put(keys, tats, s.keys[i], mix(s.keys[i]), t);
+				size++;
+			}
+		}
+		s.keys = keys;
+		s.tats = tats;
+		s.size = size;
+	}
+
+	private boolean isIdle(long tat, long now) {
+		return now - tat >= idleTimeout;
+	}
+
+	private static void put(long[] keys, long[] tats, long key, long h, long tat) {
+		int mask = keys.length - 1;
+		int i = (int) h & mask;
+		while(tats[i] != 0)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		tats[i] = tat;
+	}
+
+	//spreads keys that differ only in a few bits (sequential ids) over the whole table
+	private static long mix(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,17 @@
+package implementations;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//AtomicLong that has a cache line to itself
+//the extra longs keep value alone on its cache line (and the adjacent one, for prefetchers)
+//so threads updating two hot counters (head and tail of a ring) don't keep stealing
+//each others cache line
+@SuppressWarnings("unused")
+class PaddedAtomicLong extends AtomicLong {
+	private static final long serialVersionUID = 1L;
+	long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+
+	PaddedAtomicLong(long initial) {
+		super(initial);
+	}
+}
@@ -0,0 +1,149 @@
+package implementations;
+
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Ring and lock logic shared by IntBlockingQueue and LongBlockingQueue
+ *
+ * the ring is a primitive array (int[], long[] ...) held as Object, so the batch copies
+ * with System.arraycopy live here once. single values are read and written by the
+ * subclass on its typed array, with the lock held -
+ * 	buffer[awaitSpace()] = v; added();
+ * 	ret = buffer[awaitItem()]; removed();
+ *
+ * producers wait on notFull and consumers on notEmpty, like BlockingQueue
+ */
+abstract class PrimitiveRingQueue {
+
+	private final Object buffer;
+	private final int capacity;
+	private int head;		//remove from front
+	private int tail;		//add to back
+	private int count;
+
+	final Lock lock;
+	private final Condition notFull;
+	private final Condition notEmpty;
+
+	PrimitiveRingQueue(Object buffer, int capacity) {
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.head = 0;
+		this.tail = 0;
+		this.count = 0;
+		this.lock = new ReentrantLock();
+		this.notFull = lock.newCondition();
+		this.notEmpty = lock.newCondition();
+	}
+
+	static int checkCapacity(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("capacity should be positive, got "+capacity);
+		return capacity;
+	}
+
+	//called with the lock held, waits for space and returns the slot to write
+	final int awaitSpace() throws InterruptedException {
+		while(count == capacity)
+			notFull.await();
+		return tail;
+	}
+
+	//called with the lock held after writing the slot given by awaitSpace
+	final void added() {
+		tail = (tail + 1 == capacity) ? 0 : tail + 1;
+		count++;
+		notEmpty.signal();
+	}
+
+	//called with the lock held, waits for an item and returns the slot to read
+	final int awaitItem() throws InterruptedException {
+		while(count == 0)
+			notEmpty.await();
+		return head;
+	}
+
+	//called with the lock held after reading the slot given by awaitItem
+	final void removed() {
+		head = (head + 1 == capacity) ? 0 : head + 1;
+		count--;
+		notFull.signal();
+	}
+
+	//adds src[off] .. src[off+len-1], blocks whenever the queue is full
+	//as many values as fit are copied per lock hold
+	final void offerAll(Object src, int srcLength, int off, int len) throws InterruptedException {
+		Objects.checkFromIndexSize(off, len, srcLength);
+
+		lock.lock();
+		try {
+			while(len > 0) {
+				while(count == capacity)
+					notFull.await();
+
+				int n = Math.min(len, capacity - count);
+				//free space may wrap around the end of the ring, copy at most two runs
+				int first = Math.min(n, capacity - tail);
+				System.arraycopy(src, off, buffer, tail, first);
+				System.arraycopy(src, off + first, buffer, 0, n - first);
+				tail = (tail + n) % capacity;
+				count += n;
+				off += n;
+				len -= n;
+
+				for(int i=0; i<n; i++)
+					notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//blocks until at least one value is available, then copies up to max values
+	//into dst starting at off. returns the number of values copied
+	final int drainTo(Object dst, int dstLength, int off, int max) throws InterruptedException {
+		Objects.checkFromIndexSize(off, max, dstLength);
+		if(max == 0)
+			return 0;
+
+		lock.lock();
+		try {
+			while(count == 0)
+				notEmpty.await();
+
+			int n = Math.min(max, count);
+			int first = Math.min(n, capacity - head);
+			System.arraycopy(buffer, head, dst, off, first);
+			System.arraycopy(buffer, 0, dst, off + first, n - first);
+			head = (head + n) % capacity;
+			count -= n;
+
+			for(int i=0; i<n; i++)
+				notFull.signal();
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//size can change when other is trying to modify the queue concurrently
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+}
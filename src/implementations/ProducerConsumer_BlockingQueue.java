@@ -1,5 +1,7 @@
 package implementations;
 
+import java.util.Arrays;
+
 /*
  * Implementation of producer and Consumer problem using 
  * a blocking queue
@@ -7,23 +9,51 @@ package implementations;
  * Producer produces an item and adds it to the list
  * consumer consumes an item from the list
  * 
+ * pass "ring" as argument to run it on the lock free RingBufferQueue
+ * instead of the lock based BlockingQueue
+ * 
+ * with a count, e.g. "virtual 1000000", every item is offered and polled by its own
+ * thread, virtual ones if asked for (see ThreadLauncher), and main returns when all
+ * items went through the queue
  */
 public class ProducerConsumer_BlockingQueue {
 	
-	BlockingQueue<Integer> bq;
+	private static final int ADDING = EventJournal.event("Producer1 adding {} to the queue");
+	private static final int GOT1 = EventJournal.event("Consumer1 got {} from the queue");
+	private static final int GOT2 = EventJournal.event("Consumer2 got {} from the queue");
+	
+	BoundedQueue<Integer> bq;
 	
 	ProducerConsumer_BlockingQueue() {
-		this.bq = new BlockingQueue<>(20);
+		this(new BlockingQueue<>(20));
+	}
+	
+	ProducerConsumer_BlockingQueue(BoundedQueue<Integer> bq) {
+		this.bq = bq;
 	}
 	
 	public static void main(String[] args) {
-		ProducerConsumer_BlockingQueue o = new ProducerConsumer_BlockingQueue();
+		ProducerConsumer_BlockingQueue o = Arrays.asList(args).contains("ring")
+				? new ProducerConsumer_BlockingQueue(new RingBufferQueue<>(32))
+				: new ProducerConsumer_BlockingQueue();
+		
+		int tasks = ThreadLauncher.count(args, 0);
+		if(tasks > 0) {
+			ThreadLauncher launcher = ThreadLauncher.fromArgs(args);
+			try {
+				long nanos = launcher.runAll(tasks, i -> o.getBlockingQueue().offer(i), i -> o.getBlockingQueue().poll());
+				System.out.println(tasks+" producers and consumers done in "+(nanos / 1_000_000)+" ms");
+			} catch(InterruptedException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
 		
 		Thread producer1 = new Thread(()-> {
 			int i = 0;
 			while(true) {
 				try {
-					System.out.println("Producer1 adding "+i+" to the queue");
+					EventJournal.log(ADDING, i);
 					o.getBlockingQueue().offer( i++ );
 				} catch (InterruptedException e) {
 					e.printStackTrace();
@@ -36,7 +66,7 @@ public class ProducerConsumer_BlockingQueue {
 				int v = -1;
 				try {
 					v = o.getBlockingQueue().poll().intValue();
-					System.out.println("Consumer1 got "+v+" from the queue");
+					EventJournal.log(GOT1, v);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -49,7 +79,7 @@ public class ProducerConsumer_BlockingQueue {
 				int v = -1;
 				try {
 					v = o.getBlockingQueue().poll().intValue();
-					System.out.println("Consumer2 got "+v+" from the queue");
+					EventJournal.log(GOT2, v);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -73,7 +103,7 @@ public class ProducerConsumer_BlockingQueue {
 	}
 	
 	
-	BlockingQueue<Integer> getBlockingQueue() {
+	BoundedQueue<Integer> getBlockingQueue() {
 		return this.bq;
 	}
 }
@@ -3,9 +3,15 @@ package implementations;
 
 /*
  * Implement producer consumer problem using counting semaphore class
+ * 
+ * main with a count, e.g. "virtual 1000000", produces and consumes every item on its
+ * own thread, virtual ones if asked for (see ThreadLauncher)
  */
 public class ProducerConsumer_CountingSemaphore {
 	
+	private static final int PRODUCED = EventJournal.event("Producer adding = {}");
+	private static final int CONSUMED = EventJournal.event("Consumer consuming ={}");
+	
 	int[] buffer;
 	int head;		//remove from front
 	int tail;		//add to back
@@ -40,7 +46,7 @@ public class ProducerConsumer_CountingSemaphore {
 		
 		tail = (tail%buffer.length);
 		
-		System.out.println("Producer adding = "+x);
+		EventJournal.log(PRODUCED, x);		//semLock is held, don't print here
 		buffer[tail++] = x;
 		
 		semLock.release();
@@ -54,7 +60,7 @@ public class ProducerConsumer_CountingSemaphore {
 		
 		head = (head%buffer.length);
 		
-		System.out.println("Consumer consuming ="+buffer[head]);
+		EventJournal.log(CONSUMED, buffer[head]);
 		
 		head++;
 		
@@ -66,6 +72,19 @@ public class ProducerConsumer_CountingSemaphore {
 		
 		ProducerConsumer_CountingSemaphore o = new ProducerConsumer_CountingSemaphore(10);
 		
+		int tasks = ThreadLauncher.count(args, 0);
+		if(tasks > 0) {
+			ThreadLauncher launcher = ThreadLauncher.fromArgs(args);
+			try {
+				long nanos = launcher.runAll(tasks, i -> o.produce(i), i -> o.consumer());
+				EventJournal.flush();
+				System.out.println(tasks+" producers and consumers done in "+(nanos / 1_000_000)+" ms");
+			} catch(InterruptedException e) {
+				System.out.println("Exception while waiting for threads to finish "+e.getMessage());
+			}
+			return;
+		}
+		
 		Thread producer = new Thread(() ->   {
 			try {	
 				for(int i=1; i<20; i++) {
@@ -0,0 +1,196 @@
+package implementations;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Producer consumer ring of ProducerConsumer_CountingSemaphore for many producers
+ * and many consumers
+ *
+ * ProducerConsumer_CountingSemaphore guards buffer, head and tail with semLock used as
+ * a mutex, so producers and consumers take turns on one lock for every item
+ *
+ * here there is no mutex -
+ * semProducer and semConsumer still count free and filled slots, but they are only the
+ * park/wake path for a full or empty ring (AtomicCountingSemaphore, so no lock at all
+ * while nobody has to wait)
+ * once a thread has its permit it claims a position with an atomic add on tail
+ * (producer) or head (consumer), no other thread gets the same position
+ * every slot has a sequence number -
+ * 	sequence == position		slot free, producer of 'position' can write
+ * 	sequence == position + 1	slot filled, consumer of 'position' can read
+ * a permit says some slot is ready, not necessarily the one just claimed (the producer
+ * that claimed it may still be writing), so a thread waits for its slot's sequence
+ * before using it. that wait only lasts until the other thread finishes one write/read
+ *
+ * produce(int)/consume() move one item, produce(int[])/consume(int[]) move a batch with
+ * one semaphore operation per side and one claim for as many slots as are ready (at
+ * least one). a batch never waits for the whole batch worth of slots, that could leave
+ * batch producers and batch consumers waiting for each other with the ring half full
+ *
+ * main with a count, e.g. "virtual 1000000", produces and consumes every item on its
+ * own thread, virtual ones if asked for (see ThreadLauncher)
+ */
+public class ProducerConsumer_LockFreeRing {
+
+	private static final int CONSUMED1 = EventJournal.event("Consumer1 consuming ={}");
+	private static final int CONSUMED2 = EventJournal.event("Consumer2 consuming ={}");
+
+	final int[] buffer;
+	final AtomicLongArray sequences;
+	final PaddedAtomicLong head;		//remove from front
+	final PaddedAtomicLong tail;		//add to back
+	final AtomicCountingSemaphore semProducer;
+	final AtomicCountingSemaphore semConsumer;
+
+	//waiting for the thread that claimed a slot before us to finish with it
+	private final WaitStrategy slotWait;
+
+	public ProducerConsumer_LockFreeRing(int buffersize) {
+		if(buffersize <= 0)
+			throw new IllegalArgumentException("buffersize should be positive, got "+buffersize);
+		this.buffer = new int[buffersize];
+		this.sequences = new AtomicLongArray(buffersize);
+		for(int i=0; i<buffersize; i++)
+			sequences.set(i, i);
+		this.head = new PaddedAtomicLong(0);
+		this.tail = new PaddedAtomicLong(0);
+		this.semProducer = new AtomicCountingSemaphore(buffersize, buffersize);
+		this.semConsumer = new AtomicCountingSemaphore(buffersize, 0);
+		this.slotWait = WaitStrategy.spinThenYield(64);
+	}
+
+	public void produce(int x) throws InterruptedException {
+		semProducer.acquire();
+		put(tail.getAndIncrement(), x);
+		semConsumer.release();
+	}
+
+	public int consume() throws InterruptedException {
+		semConsumer.acquire();
+		int v = take(head.getAndIncrement());
+		semProducer.release();
+		return v;
+	}
+
+	//adds src[off] .. src[off+len-1]
+	//bounds are checked before the first claim, a claimed slot has to be filled
+	public void produce(int[] src, int off, int len) throws InterruptedException {
+		Objects.checkFromIndexSize(off, len, src.length);
+		while(len > 0) {
+			int n = semProducer.acquireUpTo(len);
+			long pos = tail.getAndAdd(n);
+			for(int i=0; i<n; i++)
+				put(pos + i, src[off + i]);
+			semConsumer.release(n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	//takes exactly len items into dst starting at off
+	public void consume(int[] dst, int off, int len) throws InterruptedException {
+		Objects.checkFromIndexSize(off, len, dst.length);
+		while(len > 0) {
+			int n = semConsumer.acquireUpTo(len);
+			long pos = head.getAndAdd(n);
+			for(int i=0; i<n; i++)
+				dst[off + i] = take(pos + i);
+			semProducer.release(n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void put(long pos, int x) {
+		int idx = (int) (pos % buffer.length);
+		int attempt = 0;
+		while(sequences.get(idx) != pos)		//consumer of the previous round still reading
+			slotWait.idle(attempt++);
+		buffer[idx] = x;
+		sequences.set(idx, pos + 1);
+	}
+
+	private int take(long pos) {
+		int idx = (int) (pos % buffer.length);
+		int attempt = 0;
+		while(sequences.get(idx) != pos + 1)	//producer of this position still writing
+			slotWait.idle(attempt++);
+		int v = buffer[idx];
+		sequences.set(idx, pos + buffer.length);
+		return v;
+	}
+
+	public static void main(String[] args) {
+
+		ProducerConsumer_LockFreeRing o = new ProducerConsumer_LockFreeRing(10);
+
+		int tasks = ThreadLauncher.count(args, 0);
+		if(tasks > 0) {
+			ThreadLauncher launcher = ThreadLauncher.fromArgs(args);
+			try {
+				long nanos = launcher.runAll(tasks, i -> o.produce(i), i -> o.consume());
+				System.out.println(tasks+" producers and consumers done in "+(nanos / 1_000_000)+" ms");
+			} catch(InterruptedException e) {
+				System.out.println("Exception while waiting for threads to finish "+e.getMessage());
+			}
+			return;
+		}
+
+		Thread producer1 = new Thread(() ->   {
+			try {
+				for(int i=1; i<20; i++) {
+					o.produce(i);
+				}
+			} catch(InterruptedException e) {
+				System.out.println("Producer Interrupted !");
+			}
+		} );
+
+		Thread producer2 = new Thread(() ->   {
+			try {
+				int[] batch = new int[5];
+				for(int i=0; i<batch.length; i++)
+					batch[i] = 100 + i;
+				o.produce(batch, 0, batch.length);
+			} catch(InterruptedException e) {
+				System.out.println("Producer Interrupted !");
+			}
+		} );
+
+		Thread consumer1  = new Thread( () ->  {
+			try {
+				for(int i=1; i<13; i++) {
+					EventJournal.log(CONSUMED1, o.consume());
+				}
+			} catch(InterruptedException e) {
+				System.out.println("Consumer Interrupted !");
+			}
+		});
+
+		Thread consumer2  = new Thread( () ->  {
+			try {
+				int[] batch = new int[12];
+				o.consume(batch, 0, batch.length);
+				for(int v: batch)
+					EventJournal.log(CONSUMED2, v);
+			} catch(InterruptedException e) {
+				System.out.println("Consumer Interrupted !");
+			}
+		});
+
+		producer1.start();
+		producer2.start();
+		consumer1.start();
+		consumer2.start();
+
+		try {
+			producer1.join();
+			producer2.join();
+			consumer1.join();
+			consumer2.join();
+		} catch (InterruptedException e) {
+			System.out.println("Exception while waiting for threads to finish "+e.getMessage());
+		}
+	}
+}
@@ -1,5 +1,12 @@
 package implementations;
 
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
 /*
  * Class providing methods to allow multiple reads when no write is happening 
  * at the same time
@@ -19,39 +26,463 @@ package implementations;
  * 
  * same for writer thread
  * 
- * Note that this implementation may lead to starvation of writer threads as num of reader can be much more
- * and writer can only write when no reader is reading
+ * Who goes first when readers and writers are both waiting is decided by the Policy
+ * given to the constructor -
+ * READER_PREFERRING (default) - readers only check for an active writer. num of readers
+ * 		can be much more than writers and a steady stream of them keeps activeReadLock
+ * 		above zero, so writers may starve
+ * WRITER_PREFERRING - a waiting writer stops new readers from entering, readers already
+ * 		inside finish and the writer goes next. readers can starve if writers keep coming
+ * FAIR - threads are served in arrival order. consecutive readers at the front of the
+ * 		line enter together, so the lock alternates between a batch of readers and one
+ * 		writer and nobody starves
+ *
+ * ReadWriteLockBenchmark measures what each policy costs
+ *
+ * Optimistic reads -
+ * for short read sections even an uncontended acquireReadLock costs more than the read
+ * itself. tryOptimisticRead() returns a stamp without writing anything, validate(stamp)
+ * tells afterwards whether a writer got in since the stamp was taken
+ *
+ * long stamp = readWriteLock.tryOptimisticRead()
+ * copy the shared fields into locals
+ * if(!readWriteLock.validate(stamp)) {
+ * 	readWriteLock.upgradeToReadLock(stamp)		//false here, so copy again under the lock
+ * 	copy the shared fields into locals
+ * 	readWriteLock.releaseReadLock()
+ * }
+ * use the locals
+ *
+ * the copied values can be inconsistent until validate says otherwise, so don't act on
+ * them (follow pointers, index arrays ...) before validating
+ *
+ * version is bumped when a writer gets the lock and again when it releases it, odd
+ * means a writer is inside. a stamp is an even version, 0 means no stamp was given
+ *
+ * Reentrancy -
+ * both locks are reentrant, every acquire needs its own release by the same thread
+ * the writer can also take the read lock, and downgradeToReadLock() turns its write
+ * lock into a read lock without letting another writer in between
+ * a reader asking for the write lock gets IllegalMonitorStateException, upgrading would
+ * deadlock as soon as two readers tried it
+ * hold counts of the first reader and of the last reader seen are kept in fields, other
+ * readers pay a ThreadLocal lookup
+ *
+ * tryAcquireReadLock(timeout)/tryAcquireWriteLock(timeout) give up after the timeout
+ *
+ * the bookkeeping is guarded by a ReentrantLock and waiting threads wait on its
+ * condition instead of the monitor, a virtual thread blocked here unmounts from its
+ * carrier thread instead of pinning it
+ *
+ * enableMetrics(name) registers two SyncMetrics, name.read and name.write, counting
+ * acquisitions, how many of them had to wait and for how long. name.write also has the
+ * hold time of the write lock (readers share the lock, their hold time is not measured)
+ * depth is the number of read holds for name.read and 1 while the write lock is held
+ * for name.write
  */
 
 public class ReadWriteLock {
 	
+	public enum Policy {
+		READER_PREFERRING,
+		WRITER_PREFERRING,
+		FAIR
+	}
+
+	//place in line of a thread waiting under FAIR policy
+	private static class Waiter {
+	}
+
+	//read holds of one thread
+	private static class HoldCounter {
+		int count;
+		final long tid = Thread.currentThread().getId();
+	}
+
 	int activeReadLock;
 	boolean writeLock;
 	
+	Thread writeOwner;
+	int writeHolds;
+
+	Thread firstReader;
+	int firstReaderHoldCount;
+	HoldCounter cachedHoldCounter;
+	final ThreadLocal<HoldCounter> readHolds = ThreadLocal.withInitial(HoldCounter::new);
+
+	public static final long INVALID_STAMP = 0;
+	volatile long version = 2;		//odd while write lock is held
+
+	final Policy policy;
+	int waitingWriters;				//WRITER_PREFERRING only
+	final ArrayDeque<Waiter> line;	//FAIR only, arrival order of waiting threads
+
+	private final ReentrantLock lock;	//guards everything above except version
+	private final Condition changed;	//lock state changed, waiters check again
+
+	//null while metrics are disabled
+	private volatile SyncMetrics readMetrics;
+	private volatile SyncMetrics writeMetrics;
+	private long writeAcquiredAt;		//only set while metrics are enabled
+
+	public ReadWriteLock() {
+		this(Policy.READER_PREFERRING);
+	}
+
+	public ReadWriteLock(Policy policy) {
+		this.policy = policy;
+		this.line = new ArrayDeque<>();
+		this.lock = new ReentrantLock();
+		this.changed = lock.newCondition();
+	}
+
 	//only one thread can try to get read lock at a time allowing multiple threads to 
-	//modify activeReadLock will cause multithreading issues
-	public synchronized void acquireReadLock() throws InterruptedException {
-		while(writeLock) {
-			this.wait();
+	//modify activeReadLock will cause multithreading issues, hence the lock
+	public void acquireReadLock() throws InterruptedException {
+		lock.lock();
+		try {
+			lockRead(false, 0L);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//returns false if the read lock couldn't be acquired before the timeout
+	public boolean tryAcquireReadLock(long timeout, TimeUnit unit) throws InterruptedException {
+		lock.lock();
+		try {
+			return lockRead(true, System.nanoTime() + unit.toNanos(timeout));
+		} finally {
+			lock.unlock();
 		}
-		
-		activeReadLock++;
 	}
+
+	public void releaseReadLock() {
+		lock.lock();
+		try {
+			Thread current = Thread.currentThread();
+
+			if(firstReader == current) {
+				if(firstReaderHoldCount == 1)
+					firstReader = null;
+				else
+					firstReaderHoldCount--;
+			} else {
+				HoldCounter rh = cachedHoldCounter;
+				if(rh == null || rh.tid != current.getId())
+					rh = readHolds.get();
+				if(rh.count <= 0) {
+					readHolds.remove();
+					throw new IllegalMonitorStateException("read lock not held by "+current.getName());
+				}
+				if(--rh.count == 0)
+					readHolds.remove();
+			}
+
+			activeReadLock--;
+			if(activeReadLock == 0)
+				changed.signalAll();	//only writers wait for readers to leave
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void acquireWriteLock() throws InterruptedException {
+		lock.lock();
+		try {
+			lockWrite(false, 0L);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//returns false if the write lock couldn't be acquired before the timeout
+	public boolean tryAcquireWriteLock(long timeout, TimeUnit unit) throws InterruptedException {
+		lock.lock();
+		try {
+			return lockWrite(true, System.nanoTime() + unit.toNanos(timeout));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void releaseWriteLock() {
+		lock.lock();
+		try {
+			if(writeOwner != Thread.currentThread())
+				throw new IllegalMonitorStateException("write lock not held by "+Thread.currentThread().getName());
+
+			if(--writeHolds > 0)
+				return;
+
+			SyncMetrics m = writeMetrics;
+			if(m != null && writeAcquiredAt != 0)
+				m.held(System.nanoTime() - writeAcquiredAt);
+
+			writeOwner = null;
+			version++;
+			writeLock = false;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	//turns the write lock held by the caller into a read lock without letting any
+	//other writer in between. all write holds but this one must be released before
+	public void downgradeToReadLock() {
+		lock.lock();
+		try {
+			if(writeOwner != Thread.currentThread() || writeHolds != 1)
+				throw new IllegalMonitorStateException("downgrade needs exactly one write hold by "+Thread.currentThread().getName());
+
+			grantRead(Thread.currentThread());
+			releaseWriteLock();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean lockRead(boolean timed, long deadline) throws InterruptedException {
+		Thread current = Thread.currentThread();
+		SyncMetrics m = readMetrics;
+
+		//writer reading what it wrote and readers re-entering never wait, the policy
+		//could otherwise make them wait for a writer that waits for them
+		if(!canRead(null) && writeOwner != current && readHoldCount(current) == 0) {
+			Waiter me = (policy == Policy.FAIR) ? enterLine() : null;
+			long start = (m != null) ? m.waitStarted() : 0L;
+
+			try {
+				while(!canRead(me)) {
+					if(!await(timed, deadline)) {
+						leaveLine(me);
+						if(m != null)
+							m.timedOut();
+						return false;
+					}
+				}
+			} catch(InterruptedException e) {
+				leaveLine(me);
+				throw e;
+			} finally {
+				if(m != null)
+					m.waitEnded(start);
+			}
+		
+			if(me != null) {
+				line.pollFirst();
+				changed.signalAll();	//reader behind us in line may enter too
+			}
+		}
 	
-	public synchronized void releaseReadLock() {
-		activeReadLock--;
-		this.notifyAll();
+		grantRead(current);
+		if(m != null)
+			m.acquired();
+		return true;
 	}
 	
-	public synchronized void acquireWriteLock() throws InterruptedException {
-		while( (writeLock) || (activeReadLock != 0) )
-			this.wait();
+	private boolean lockWrite(boolean timed, long deadline) throws InterruptedException {
+		Thread current = Thread.currentThread();
+		SyncMetrics m = writeMetrics;
+
+		if(writeOwner == current) {
+			writeHolds++;
+			if(m != null)
+				m.acquired();
+			return true;
+		}
+		//we would wait for ourselves to release the read lock
+		if(readHoldCount(current) > 0)
+			throw new IllegalMonitorStateException("read lock can't be upgraded to write lock, release it first");
+
+		Waiter me = (policy == Policy.FAIR) ? enterLine() : null;
+		if(policy == Policy.WRITER_PREFERRING)
+			waitingWriters++;
+		boolean waited = (m != null) && !canWrite(me);
+		long start = waited ? m.waitStarted() : 0L;
+
+		try {
+			while(!canWrite(me)) {
+				if(!await(timed, deadline)) {
+					leaveLine(me);
+					if(m != null)
+						m.timedOut();
+					return false;
+				}
+			}
+		} catch(InterruptedException e) {
+			leaveLine(me);
+			throw e;
+		} finally {
+			if(policy == Policy.WRITER_PREFERRING)
+				waitingWriters--;
+			if(waited)
+				m.waitEnded(start);
+		}
 		
 		writeLock = true;
+		writeOwner = current;
+		writeHolds = 1;
+		version++;
+		if(me != null)
+			line.pollFirst();
+		if(m != null) {
+			m.acquired();
+			writeAcquiredAt = System.nanoTime();
+		} else {
+			writeAcquiredAt = 0;
+		}
+		return true;
 	}
 	
-	public synchronized void releaseWriteLock() {
-		writeLock = false;
-		this.notifyAll();
+	//one wait on the condition, returns false if the deadline has passed
+	private boolean await(boolean timed, long deadline) throws InterruptedException {
+		if(!timed) {
+			changed.await();
+			return true;
+		}
+		long nanos = deadline - System.nanoTime();
+		if(nanos <= 0)
+			return false;
+		changed.awaitNanos(nanos);
+		return true;
+	}
+
+	//first reader and the last thread that touched its count are remembered in
+	//fields, only other threads need the ThreadLocal lookup
+	private void grantRead(Thread current) {
+		if(activeReadLock == 0) {
+			firstReader = current;
+			firstReaderHoldCount = 1;
+		} else if(firstReader == current) {
+			firstReaderHoldCount++;
+		} else {
+			HoldCounter rh = cachedHoldCounter;
+			if(rh == null || rh.tid != current.getId())
+				cachedHoldCounter = rh = readHolds.get();
+			else if(rh.count == 0)
+				readHolds.set(rh);	//was removed from ThreadLocal when it dropped to 0
+			rh.count++;
+		}
+		activeReadLock++;
+	}
+
+	private int readHoldCount(Thread current) {
+		if(activeReadLock == 0)
+			return 0;
+		if(firstReader == current)
+			return firstReaderHoldCount;
+
+		HoldCounter rh = cachedHoldCounter;
+		if(rh != null && rh.tid == current.getId())
+			return rh.count;
+
+		int count = readHolds.get().count;
+		if(count == 0)
+			readHolds.remove();
+		return count;
+	}
+
+	//stamp for an optimistic read, INVALID_STAMP if a writer is inside right now
+	//doesn't take the lock and doesn't write any shared state
+	public long tryOptimisticRead() {
+		long v = version;
+		return ((v & 1) == 0) ? v : INVALID_STAMP;
+	}
+
+	//true if no writer got the lock since stamp was returned by tryOptimisticRead
+	public boolean validate(long stamp) {
+		//reads of the shared data done by the caller must not move after the read of version
+		VarHandle.acquireFence();
+		return (stamp != INVALID_STAMP) && (version == stamp);
+	}
+
+	//for a reader whose optimistic read failed. acquires the read lock like
+	//acquireReadLock and returns true if still no writer got in since stamp, in
+	//which case the values read optimistically are current and need no re-read
+	public boolean upgradeToReadLock(long stamp) throws InterruptedException {
+		acquireReadLock();
+		return validate(stamp);
+	}
+
+	//starts counting, see SyncMetrics. registers name.read and name.write as MBeans
+	//throws IllegalArgumentException if another ReadWriteLock uses the name
+	public void enableMetrics(String name) {
+		disableMetrics();
+		SyncMetrics r = SyncMetrics.register("ReadWriteLock", name+".read", () -> locked(() -> activeReadLock));
+		SyncMetrics w;
+		try {
+			w = SyncMetrics.register("ReadWriteLock", name+".write", () -> locked(() -> writeLock ? 1 : 0));
+		} catch(RuntimeException e) {
+			r.unregister();
+			throw e;
+		}
+		readMetrics = r;
+		writeMetrics = w;
+	}
+
+	public void disableMetrics() {
+		SyncMetrics oldRead = readMetrics;
+		SyncMetrics oldWrite = writeMetrics;
+		readMetrics = null;
+		writeMetrics = null;
+		if(oldRead != null) {
+			oldRead.unregister();
+			oldWrite.unregister();
+		}
+	}
+
+	//null while metrics are disabled
+	public SyncMetrics getReadMetrics() {
+		return readMetrics;
+	}
+
+	public SyncMetrics getWriteMetrics() {
+		return writeMetrics;
+	}
+
+	private long locked(IntSupplier value) {
+		lock.lock();
+		try {
+			return value.getAsInt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean canRead(Waiter me) {
+		if(writeLock)
+			return false;
+
+		switch(policy) {
+		case WRITER_PREFERRING:
+			return waitingWriters == 0;
+		case FAIR:
+			return line.peekFirst() == me;
+		default:
+			return true;
+		}
+	}
+
+	private boolean canWrite(Waiter me) {
+		if(writeLock || activeReadLock != 0)
+			return false;
+
+		return (policy != Policy.FAIR) || (line.peekFirst() == me);
+	}
+
+	private Waiter enterLine() {
+		Waiter me = new Waiter();
+		line.addLast(me);
+		return me;
+	}
+
+	//thread gave up waiting. whoever was behind it in line (FAIR), or readers held
+	//back by it (WRITER_PREFERRING), may go now
+	private void leaveLine(Waiter me) {
+		if(me != null)
+			line.remove(me);
+		changed.signalAll();
 	}
 }
@@ -0,0 +1,106 @@
+package implementations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Measures what each ReadWriteLock.Policy costs under a read heavy load
+ *
+ * readers keep acquiring the read lock and doing a little work inside it
+ * writers acquire the write lock every WRITE_INTERVAL like a config refresh would
+ *
+ * for each policy it prints -
+ * reads per second		throughput of the readers
+ * writes per second		how many refreshes got through
+ * avg and max writer wait	time from calling acquireWriteLock until getting it
+ *
+ * usage - ReadWriteLockBenchmark [readers] [writers] [seconds]
+ */
+public class ReadWriteLockBenchmark {
+
+	private static final long WRITE_INTERVAL = 1_000_000;	//in ns
+	private static final int READ_WORK = 200;			//iterations of busy work per read
+
+	static volatile long sink;
+
+	public static void main(String[] args) throws InterruptedException {
+		int readers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int writers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		System.out.println("readers="+readers+" writers="+writers+" seconds="+seconds);
+		for(ReadWriteLock.Policy policy: ReadWriteLock.Policy.values()) {
+			run(new ReadWriteLock(policy), policy.name(), readers, writers, seconds);
+		}
+	}
+
+	static void run(ReadWriteLock lock, String name, int readers, int writers, int seconds) throws InterruptedException {
+		AtomicLong reads = new AtomicLong();
+		AtomicLong writes = new AtomicLong();
+		AtomicLong totalWriterWait = new AtomicLong();
+		AtomicLong maxWriterWait = new AtomicLong();
+
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		List<Thread> threads = new ArrayList<>();
+
+		for(int i=0; i<readers; i++) {
+			threads.add(new Thread(() -> {
+				long n = 0;
+				try {
+					while(System.nanoTime() < end) {
+						lock.acquireReadLock();
+						busyWork();
+						lock.releaseReadLock();
+						n++;
+					}
+				} catch(InterruptedException e) {
+					System.out.println("Interrupted reader "+Thread.currentThread().getName());
+				}
+				reads.addAndGet(n);
+			}));
+		}
+
+		for(int i=0; i<writers; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					while(System.nanoTime() < end) {
+						long start = System.nanoTime();
+						lock.acquireWriteLock();
+						long waited = System.nanoTime() - start;
+						busyWork();
+						lock.releaseWriteLock();
+
+						writes.incrementAndGet();
+						totalWriterWait.addAndGet(waited);
+						maxWriterWait.accumulateAndGet(waited, Math::max);
+						LockSupport.parkNanos(WRITE_INTERVAL);
+					}
+				} catch(InterruptedException e) {
+					System.out.println("Interrupted writer "+Thread.currentThread().getName());
+				}
+			}));
+		}
+
+		for(Thread t: threads)
+			t.start();
+		for(Thread t: threads)
+			t.join();
+
+		long w = writes.get();
+		System.out.printf("%-18s reads/s=%,d writes/s=%,d avgWriterWait=%,dus maxWriterWait=%,dus%n",
+				name,
+				reads.get() / seconds,
+				w / seconds,
+				w == 0 ? 0 : totalWriterWait.get() / w / 1000,
+				maxWriterWait.get() / 1000);
+	}
+
+	private static void busyWork() {
+		long x = 0;
+		for(int i=0; i<READ_WORK; i++)
+			x += i * 31;
+		sink = x;
+	}
+}
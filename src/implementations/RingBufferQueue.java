@@ -0,0 +1,211 @@
+package implementations;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Bounded multi-producer/multi-consumer queue without a lock
+ *
+ * Responsibility -
+ * same contract as BlockingQueue (offer blocks when full, poll blocks when empty)
+ * but producers and consumers never share a monitor
+ *
+ * How it works -
+ * items live in a preallocated array whose length is a power of two so the slot
+ * of a position is (position & mask)
+ * every slot has a sequence number that says whose turn it is on that slot
+ * 	sequence == position		slot is free, producer claiming 'position' can write
+ * 	sequence == position + 1	slot is filled, consumer claiming 'position' can read
+ * producers claim positions by CAS on tail, consumers by CAS on head
+ * a claimed slot is published by writing the next sequence number
+ *
+ * head and tail are padded so that producers and consumers don't keep stealing
+ * each others cache line
+ *
+ * threads park only when a claim attempt shows the queue is really full or empty
+ * they add themselves to a waiter list and try once more before parking, the other
+ * side always publishes first and then checks the waiter list, so a wakeup can't be lost
+ * every successful claim wakes a waiter of the other side, tryOffer/tryPoll included,
+ * so the non-blocking and the blocking calls can be mixed
+ *
+ * the array is the requested capacity rounded up to the next power of two (2 at least)
+ * but a producer never claims a position capacity or more ahead of head, so the queue
+ * holds at most capacity items and capacity() is the requested one like in BlockingQueue
+ * null items are not allowed
+ */
+public class RingBufferQueue<T> implements BoundedQueue<T> {
+
+	private final Object[] buffer;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final int capacity;
+
+	private final PaddedAtomicLong head;	//next position to poll from
+	private final PaddedAtomicLong tail;	//next position to offer to
+
+	private final ConcurrentLinkedQueue<Thread> producersWaiting;
+	private final ConcurrentLinkedQueue<Thread> consumersWaiting;
+
+	public RingBufferQueue(int capacity) {
+		if(capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("capacity should be between 1 and 2^30, got "+capacity);
+
+		//at least 2 slots, with one the filled sequence (pos+1) of a slot is the free
+		//sequence of the next lap and a producer could overwrite an unread item
+		int size = 2;
+		while(size < capacity)
+			size <<= 1;
+
+		this.buffer = new Object[size];
+		this.sequences = new AtomicLongArray(size);
+		for(int i=0; i<size; i++)
+			sequences.set(i, i);
+		this.mask = size - 1;
+		this.capacity = capacity;
+		this.head = new PaddedAtomicLong(0);
+		this.tail = new PaddedAtomicLong(0);
+		this.producersWaiting = new ConcurrentLinkedQueue<>();
+		this.consumersWaiting = new ConcurrentLinkedQueue<>();
+	}
+
+	//adds the item if there is space, never blocks
+	@Override
+	public boolean tryOffer(T o) {
+		if(o == null)
+			throw new NullPointerException();
+
+		long pos = tail.get();
+		while(true) {
+			int idx = (int) (pos & mask);
+			long diff = sequences.get(idx) - pos;
+
+			if(diff == 0) {
+				//slot is free but the queue already holds capacity items
+				if(pos - head.get() >= capacity)
+					return false;
+				if(tail.compareAndSet(pos, pos + 1)) {
+					buffer[idx] = o;
+					sequences.set(idx, pos + 1);	//publish, volatile write orders the buffer write before it
+					wakeOne(consumersWaiting);
+					return true;
+				}
+				pos = tail.get();
+			} else if(diff < 0) {
+				//consumer of the previous lap hasn't freed this slot, queue is full
+				return false;
+			} else {
+				//another producer claimed pos already, catch up
+				pos = tail.get();
+			}
+		}
+	}
+
+	//removes an item if there is one, never blocks. returns null when empty
+	@Override
+	@SuppressWarnings("unchecked")
+	public T tryPoll() {
+		long pos = head.get();
+		while(true) {
+			int idx = (int) (pos & mask);
+			long diff = sequences.get(idx) - (pos + 1);
+
+			if(diff == 0) {
+				if(head.compareAndSet(pos, pos + 1)) {
+					T ret = (T) buffer[idx];
+					buffer[idx] = null;
+					sequences.set(idx, pos + buffer.length);	//free the slot for the producer of the next lap
+					wakeOne(producersWaiting);
+					return ret;
+				}
+				pos = head.get();
+			} else if(diff < 0) {
+				//producer hasn't published this slot yet, queue is empty
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	@Override
+	public void offer(T o) throws InterruptedException {
+		if(!tryOffer(o)) {
+			Thread me = Thread.currentThread();
+			while(true) {
+				producersWaiting.offer(me);
+				if(tryOffer(o)) {
+					leaveWaiters(producersWaiting, me);
+					break;
+				}
+				LockSupport.park(this);
+				if(Thread.interrupted()) {
+					leaveWaiters(producersWaiting, me);
+					throw new InterruptedException();
+				}
+				producersWaiting.remove(me);	//still there only if the wakeup was spurious
+			}
+		}
+	}
+
+	@Override
+	public T poll() throws InterruptedException {
+		T ret = tryPoll();
+		if(ret == null) {
+			Thread me = Thread.currentThread();
+			while(true) {
+				consumersWaiting.offer(me);
+				ret = tryPoll();
+				if(ret != null) {
+					leaveWaiters(consumersWaiting, me);
+					break;
+				}
+				LockSupport.park(this);
+				if(Thread.interrupted()) {
+					leaveWaiters(consumersWaiting, me);
+					throw new InterruptedException();
+				}
+				consumersWaiting.remove(me);
+			}
+		}
+		return ret;
+	}
+
+	private void wakeOne(ConcurrentLinkedQueue<Thread> waiters) {
+		Thread t = waiters.poll();
+		if(t != null)
+			LockSupport.unpark(t);
+	}
+
+	//if we are no longer in the list somebody picked us to wake up, but we are not going
+	//to wait anymore. hand that wakeup over to another waiter so it doesn't get lost
+	private void leaveWaiters(ConcurrentLinkedQueue<Thread> waiters, Thread me) {
+		if(!waiters.remove(me))
+			wakeOne(waiters);
+	}
+
+	//snapshot only, head and tail are read one after the other
+	@Override
+	public int size() {
+		while(true) {
+			long h = head.get();
+			long t = tail.get();
+			if(h == head.get()) {
+				long size = t - h;
+				if(size < 0)
+					return 0;
+				return (int) Math.min(size, capacity);
+			}
+		}
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+}
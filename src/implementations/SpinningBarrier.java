@@ -0,0 +1,226 @@
+package implementations;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Cyclic barrier for phases that take microseconds
+ *
+ * with BarrierCyclic every await takes a lock and every waiter is parked on a condition
+ * and signalled, that costs more than a short phase itself
+ *
+ * here arrivals are counted with an AtomicInteger and the barrier trips by replacing the
+ * current Generation (sense reversing barrier, the generation is the sense) -
+ * a thread reads the generation before arriving, it can't change before everybody arrived
+ * the last thread to arrive puts a fresh generation in place, that releases the others
+ * the others spin until the generation is not the one they read anymore
+ * the fresh generation has its own count, so the next phase can start right after it
+ *
+ * a waiter spins at most spinLimit times and then parks. spinLimit adapts - it grows
+ * when waiters see the trip while spinning and shrinks when they end up parking, so a
+ * slow straggler costs less and less cpu. the thread that trips unparks the parked
+ * waiters after the flip
+ *
+ * Broken barrier, same as BarrierCyclic -
+ * a waiting thread that is interrupted or times out, or a barrier action that throws,
+ * breaks the barrier. everybody waiting and everybody calling await later gets a
+ * BrokenBarrierException until reset() is called. breaking is a CAS of the count of
+ * the generation to BROKEN, it only works while somebody is still missing, so a trip
+ * and a break can't both happen - a thread interrupted or timed out after the last one
+ * arrived is released normally and keeps the interrupt flag set
+ *
+ * constructors, await(), await(timeout), reset() and isBroken() are the ones of
+ * BarrierCyclic so it can replace it. register()/deregister() and getPhase() are not
+ * there, the number of parties is fixed
+ */
+public class SpinningBarrier {
+
+	private static final int MIN_SPINS = 1 << 6;
+	private static final int MAX_SPINS = 1 << 16;
+	private static final int BROKEN = Integer.MIN_VALUE / 2;	//late arrivals can't take it back above 0
+
+	//one phase. remaining counts down to 0 when the phase trips, below 0 it is broken
+	private static class Generation {
+		final AtomicInteger remaining;
+
+		Generation(int parties) {
+			this.remaining = new AtomicInteger(parties);
+		}
+
+		//true if this call broke it, false if it was broken or tripped already
+		boolean breakIt() {
+			int r;
+			while((r = remaining.get()) > 0)
+				if(remaining.compareAndSet(r, BROKEN))
+					return true;
+			return false;
+		}
+
+		boolean isBroken() {
+			return remaining.get() < 0;
+		}
+	}
+
+	final int MAX_THREADS;
+	final Runnable barrierAction;
+	private final AtomicReference<Generation> generation;
+	private volatile int spinLimit;		//racy on purpose, it is only a hint
+	private final ConcurrentLinkedQueue<Thread> parked;
+
+	SpinningBarrier(int x) {
+		this(x, null);
+	}
+
+	SpinningBarrier(int x, Runnable barrierAction) {
+		if(x <= 0)
+			throw new IllegalArgumentException("parties should be positive, got "+x);
+		this.MAX_THREADS = x;
+		this.barrierAction = barrierAction;
+		this.generation = new AtomicReference<>(new Generation(x));
+		this.spinLimit = 1 << 10;
+		this.parked = new ConcurrentLinkedQueue<>();
+	}
+
+	public void await() throws InterruptedException, BrokenBarrierException {
+		try {
+			doAwait(false, 0L);
+		} catch(TimeoutException e) {
+			throw new IllegalStateException(e);	//can't happen without timeout
+		}
+	}
+
+	public void await(long timeout, TimeUnit unit) throws InterruptedException, BrokenBarrierException, TimeoutException {
+		doAwait(true, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	private void doAwait(boolean timed, long deadline) throws InterruptedException, BrokenBarrierException, TimeoutException {
+		Generation g = generation.get();
+		if(g.isBroken())
+			throw new BrokenBarrierException();
+		if(Thread.interrupted()) {
+			breakBarrier(g);
+			throw new InterruptedException();
+		}
+
+		int r = g.remaining.decrementAndGet();
+		if(r < 0)
+			throw new BrokenBarrierException();		//broken while we were arriving
+		if(r == 0) {
+			trip(g);
+			return;
+		}
+
+		int limit = spinLimit;
+		for(int i=0; i<limit; i++) {
+			//broken first, reset() replaces a broken generation too
+			if(g.isBroken())
+				throw new BrokenBarrierException();
+			if(generation.get() != g) {
+				if(limit < MAX_SPINS)
+					spinLimit = limit << 1;
+				return;
+			}
+			Thread.onSpinWait();
+		}
+
+		if(limit > MIN_SPINS)
+			spinLimit = limit >> 1;
+		park(g, timed, deadline);
+	}
+
+	private void park(Generation g, boolean timed, long deadline) throws InterruptedException, BrokenBarrierException, TimeoutException {
+		Thread me = Thread.currentThread();
+		boolean interrupted = false;
+
+		try {
+			while(generation.get() == g) {
+				if(g.isBroken())
+					throw new BrokenBarrierException();
+
+				long nanos = 0;
+				if(timed && (nanos = deadline - System.nanoTime()) <= 0) {
+					if(breakBarrier(g))
+						throw new TimeoutException();
+					continue;		//tripping or broken right now, the loop sees which
+				}
+
+				parked.offer(me);
+				if(generation.get() == g && !g.isBroken()) {	//flipped after we looked, don't sleep through it
+					if(timed)
+						LockSupport.parkNanos(this, nanos);
+					else
+						LockSupport.park(this);
+				}
+				parked.remove(me);
+
+				if(Thread.interrupted()) {
+					if(breakBarrier(g))
+						throw new InterruptedException();
+					//tripped or broken anyway, keep the interrupt for later
+					interrupted = true;
+				}
+			}
+			if(g.isBroken())
+				throw new BrokenBarrierException();		//replaced by reset()
+		} finally {
+			if(interrupted)
+				me.interrupt();
+		}
+	}
+
+	//called by the last thread to arrive, g can't break anymore
+	private void trip(Generation g) {
+		if(barrierAction != null) {
+			try {
+				barrierAction.run();
+			} catch(RuntimeException | Error e) {
+				//count is 0 and nobody else touches it now, g stays broken until reset
+				g.remaining.set(BROKEN);
+				wakeAll();
+				throw e;
+			}
+		}
+
+		generation.set(new Generation(MAX_THREADS));
+		wakeAll();
+	}
+
+	//true if this call broke g
+	private boolean breakBarrier(Generation g) {
+		if(!g.breakIt())
+			return false;
+		wakeAll();
+		return true;
+	}
+
+	private void wakeAll() {
+		Thread t;
+		while((t = parked.poll()) != null)
+			LockSupport.unpark(t);
+	}
+
+	//breaks the barrier for threads waiting now and starts a fresh phase
+	public void reset() {
+		while(true) {
+			Generation g = generation.get();
+			g.breakIt();
+			if(!g.isBroken()) {
+				Thread.yield();		//last one arrived, the trip is being put in place
+				continue;
+			}
+			if(generation.compareAndSet(g, new Generation(MAX_THREADS))) {
+				wakeAll();
+				return;
+			}
+		}
+	}
+
+	public boolean isBroken() {
+		return generation.get().isBroken();
+	}
+}
@@ -0,0 +1,122 @@
+package implementations;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Reader biased read write lock for read mostly data
+ *
+ * ReadWriteLock counts readers in one int under one monitor, so every reader of every
+ * core writes to the same cache line and read throughput stops growing after a few cores
+ *
+ * here readers don't share anything they write -
+ * a reader announces itself by incrementing its own slot in an array of counters, the
+ * slot is picked from the thread id and slots are 128 bytes apart so two slots never
+ * share a cache line. after that it checks writerActive, if no writer is around it is in
+ *
+ * a writer first takes the writer side (one writer at a time), sets writerActive which
+ * revokes the bias, then scans all slots until every one of them is zero
+ * a reader that sees writerActive takes its increment back and waits for the writer to
+ * finish, so the writer only has to wait for readers that were already inside
+ *
+ * reader increments its slot then reads writerActive, writer sets writerActive then reads
+ * the slots, all of them volatile, so at least one of the two sees the other
+ *
+ * the same thread has to release the read lock it acquired (slot comes from thread id)
+ * waiting writers hold back new readers, readers can starve if writers never stop
+ *
+ * acquireReadLock/releaseReadLock/acquireWriteLock/releaseWriteLock behave like the ones
+ * of ReadWriteLock
+ *
+ * threads blocked by a writer wait on a lock condition, not on the monitor, so virtual
+ * threads don't pin their carriers here
+ */
+public class StripedReadWriteLock {
+
+	private static final int STRIDE = 16;	//longs per slot, 128 bytes
+
+	private final AtomicLongArray readers;
+	private final int stripeMask;
+
+	private volatile boolean writerActive;
+	private final Lock writerLock;			//guards changes of writerActive
+	private final Condition writerDone;
+
+	//writer scanning the slots waits this way for readers still inside
+	private final WaitStrategy readersDrain;
+
+	public StripedReadWriteLock() {
+		this(Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	public StripedReadWriteLock(int stripes) {
+		int n = 1;
+		while(n < stripes)
+			n <<= 1;
+
+		this.readers = new AtomicLongArray(n * STRIDE);
+		this.stripeMask = n - 1;
+		this.writerActive = false;
+		this.writerLock = new ReentrantLock();
+		this.writerDone = writerLock.newCondition();
+		this.readersDrain = WaitStrategy.spinThenPark(100, 10, 1_000_000);
+	}
+
+	public void acquireReadLock() throws InterruptedException {
+		int slot = slot();
+		while(true) {
+			readers.getAndIncrement(slot);
+			if(!writerActive)
+				return;
+
+			//writer is in or draining readers, step back and let it go first
+			readers.getAndDecrement(slot);
+			writerLock.lock();
+			try {
+				while(writerActive)
+					writerDone.await();
+			} finally {
+				writerLock.unlock();
+			}
+		}
+	}
+
+	public void releaseReadLock() {
+		readers.getAndDecrement(slot());
+	}
+
+	public void acquireWriteLock() throws InterruptedException {
+		writerLock.lock();
+		try {
+			while(writerActive)
+				writerDone.await();
+			writerActive = true;
+		} finally {
+			writerLock.unlock();
+		}
+
+		for(int i=0; i<readers.length(); i+=STRIDE) {
+			int attempt = 0;
+			while(readers.get(i) != 0)
+				readersDrain.idle(attempt++);
+		}
+	}
+
+	public void releaseWriteLock() {
+		writerLock.lock();
+		try {
+			writerActive = false;
+			writerDone.signalAll();
+		} finally {
+			writerLock.unlock();
+		}
+	}
+
+	private int slot() {
+		long id = Thread.currentThread().getId();
+		int h = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);	//spread consecutive ids over the stripes
+		return (h & stripeMask) * STRIDE;
+	}
+}
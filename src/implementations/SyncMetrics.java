@@ -0,0 +1,323 @@
+package implementations;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Contention counters of one synchronization primitive
+ *
+ * a primitive with metrics enabled (enableMetrics(name) on BlockingQueue, ReadWriteLock,
+ * CountingSemaphore, TokenBucketFilterFactory.withMetrics for token buckets) reports -
+ * acquires		operations that got what they asked for (an item, space, a lock, permits,
+ * 			tokens)
+ * blocked		operations that had to wait first, blocked/acquires is the contention
+ * timeouts		timed operations that gave up
+ * waiting		threads waiting right now
+ * depth		current level of the primitive, what it is says the primitive (items in
+ * 			a queue, permits available ...), 0 if it has none
+ * wait time		histogram of how long blocked operations waited
+ * hold time		histogram of how long a lock was held, only for primitives with an
+ * 			owner (ReadWriteLock)
+ *
+ * a primitive keeps a SyncMetrics reference that is null while metrics are disabled, so
+ * disabled metrics cost one read of a field per operation and nothing else. the wait
+ * time is measured only on the slow path, a thread that doesn't wait reads no clock
+ *
+ * counters are LongAdders and histograms are arrays of them, threads recording at the
+ * same time update different cells instead of one contended word
+ * histograms have one bucket per power of two of nanoseconds, percentiles are the
+ * upper bound of the bucket they fall in
+ *
+ * every SyncMetrics is registered as a standard MBean on the platform MBean server under
+ * implementations:type=<primitive>,name=<name> and snapshot() gives the same numbers to
+ * code. a name can be used by one primitive of a type at a time, enabling metrics under
+ * a name that is taken fails. unregister() is called by the primitive when metrics are
+ * disabled again (TokenBucketFilterFactory.withoutMetrics for token buckets) and removes
+ * only the MBean this SyncMetrics registered
+ */
+public class SyncMetrics implements SyncMetricsMBean {
+
+	//log2 buckets of nanoseconds, bucket b holds values in [2^(b-1), 2^b)
+	static class Histogram {
+		private final LongAdder[] buckets;
+		private final LongAdder sum;
+		private final LongAccumulator max;
+
+		Histogram() {
+			this.buckets = new LongAdder[65];
+			for(int i=0; i<buckets.length; i++)
+				buckets[i] = new LongAdder();
+			this.sum = new LongAdder();
+			this.max = new LongAccumulator(Math::max, 0);
+		}
+
+		void record(long nanos) {
+			if(nanos < 0)
+				nanos = 0;
+			buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+			sum.add(nanos);
+			max.accumulate(nanos);
+		}
+
+		HistogramSnapshot snapshot() {
+			long[] counts = new long[buckets.length];
+			for(int i=0; i<counts.length; i++)
+				counts[i] = buckets[i].sum();
+			return new HistogramSnapshot(counts, sum.sum(), max.get());
+		}
+
+		void reset() {
+			for(LongAdder b: buckets)
+				b.reset();
+			sum.reset();
+			max.reset();
+		}
+	}
+
+	public static class HistogramSnapshot {
+		private final long[] counts;
+		public final long count;
+		public final long sum;
+		public final long max;
+
+		HistogramSnapshot(long[] counts, long sum, long max) {
+			long n = 0;
+			for(long c: counts)
+				n += c;
+			this.counts = counts;
+			this.count = n;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long mean() {
+			return (count == 0) ? 0 : sum / count;
+		}
+
+		//upper bound of the bucket holding the p-th percentile, p in (0, 100]
+		public long percentile(double p) {
+			if(count == 0)
+				return 0;
+			long rank = (long) Math.ceil(count * p / 100);
+			long seen = 0;
+			for(int b=0; b<counts.length; b++) {
+				seen += counts[b];
+				if(seen >= rank)
+					return Math.min(max, (b == 0) ? 0 : (b == 64 ? Long.MAX_VALUE : (1L << b) - 1));
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "count="+count+" mean="+mean()+"ns p50="+percentile(50)+"ns p99="+percentile(99)+"ns max="+max+"ns";
+		}
+	}
+
+	public static class Snapshot {
+		public final String name;
+		public final long acquires;
+		public final long blocked;
+		public final long timeouts;
+		public final long waiting;
+		public final long depth;
+		public final HistogramSnapshot waitTime;
+		public final HistogramSnapshot holdTime;
+
+		Snapshot(SyncMetrics m) {
+			this.name = m.name;
+			this.acquires = m.acquires.sum();
+			this.blocked = m.blocked.sum();
+			this.timeouts = m.timeouts.sum();
+			this.waiting = m.waiting.sum();
+			this.depth = m.depth.getAsLong();
+			this.waitTime = m.waitTime.snapshot();
+			this.holdTime = m.holdTime.snapshot();
+		}
+
+		@Override
+		public String toString() {
+			return name+" acquires="+acquires+" blocked="+blocked+" timeouts="+timeouts+" waiting="+waiting
+					+" depth="+depth+" wait["+waitTime+"] hold["+holdTime+"]";
+		}
+	}
+
+	private final String name;
+	private final ObjectName objectName;
+	private final LongSupplier depth;
+	private final AtomicBoolean registered;
+
+	private final LongAdder acquires;
+	private final LongAdder blocked;
+	private final LongAdder timeouts;
+	private final LongAdder waiting;
+	private final Histogram waitTime;
+	private final Histogram holdTime;
+
+	private SyncMetrics(String type, String name, LongSupplier depth) {
+		this.name = name;
+		this.depth = depth;
+		this.registered = new AtomicBoolean(false);
+		this.acquires = new LongAdder();
+		this.blocked = new LongAdder();
+		this.timeouts = new LongAdder();
+		this.waiting = new LongAdder();
+		this.waitTime = new Histogram();
+		this.holdTime = new Histogram();
+		try {
+			this.objectName = new ObjectName("implementations:type="+type+",name="+ObjectName.quote(name));
+		} catch(JMException e) {
+			throw new IllegalArgumentException("bad metrics name "+name, e);
+		}
+	}
+
+	//creates the metrics of one primitive and registers its MBean
+	//throws IllegalArgumentException if another primitive uses the same type and name
+	static SyncMetrics register(String type, String name, LongSupplier depth) {
+		SyncMetrics m = new SyncMetrics(type, name, depth);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(m, m.objectName);
+		} catch(InstanceAlreadyExistsException e) {
+			throw new IllegalArgumentException("metrics name already in use "+m.objectName, e);
+		} catch(JMException e) {
+			throw new IllegalStateException("can't register metrics "+m.objectName, e);
+		}
+		m.registered.set(true);
+		return m;
+	}
+
+	//removes the MBean registered by register, does nothing the second time
+	void unregister() {
+		if(!registered.compareAndSet(true, false))
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch(InstanceNotFoundException e) {
+			//already removed through JMX
+		} catch(JMException e) {
+			throw new IllegalStateException("can't unregister metrics "+objectName, e);
+		}
+	}
+
+	//recording, called by the primitive
+
+	void acquired() {
+		acquires.increment();
+	}
+
+	//the caller has to wait, returns the start time for waitEnded
+	long waitStarted() {
+		blocked.increment();
+		waiting.increment();
+		return System.nanoTime();
+	}
+
+	void waitEnded(long start) {
+		waiting.decrement();
+		waitTime.record(System.nanoTime() - start);
+	}
+
+	void timedOut() {
+		timeouts.increment();
+	}
+
+	void held(long nanos) {
+		holdTime.record(nanos);
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	//MBean
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getAcquires() {
+		return acquires.sum();
+	}
+
+	@Override
+	public long getBlocked() {
+		return blocked.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public long getWaiting() {
+		return waiting.sum();
+	}
+
+	@Override
+	public long getDepth() {
+		return depth.getAsLong();
+	}
+
+	@Override
+	public long getWaitTimeMean() {
+		return waitTime.snapshot().mean();
+	}
+
+	@Override
+	public long getWaitTimeP50() {
+		return waitTime.snapshot().percentile(50);
+	}
+
+	@Override
+	public long getWaitTimeP99() {
+		return waitTime.snapshot().percentile(99);
+	}
+
+	@Override
+	public long getWaitTimeMax() {
+		return waitTime.snapshot().max;
+	}
+
+	@Override
+	public long getHoldTimeMean() {
+		return holdTime.snapshot().mean();
+	}
+
+	@Override
+	public long getHoldTimeP99() {
+		return holdTime.snapshot().percentile(99);
+	}
+
+	@Override
+	public long getHoldTimeMax() {
+		return holdTime.snapshot().max;
+	}
+
+	//waiting and depth are current values, they are not reset
+	@Override
+	public void reset() {
+		acquires.reset();
+		blocked.reset();
+		timeouts.reset();
+		waitTime.reset();
+		holdTime.reset();
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+}
@@ -0,0 +1,34 @@
+package implementations;
+
+//JMX view of a SyncMetrics, times are in nanoseconds
+//percentiles are upper bounds of power of two buckets, so at most 2x too high
+public interface SyncMetricsMBean {
+
+	public abstract String getName();
+
+	public abstract long getAcquires();
+
+	public abstract long getBlocked();
+
+	public abstract long getTimeouts();
+
+	public abstract long getWaiting();
+
+	public abstract long getDepth();
+
+	public abstract long getWaitTimeMean();
+
+	public abstract long getWaitTimeP50();
+
+	public abstract long getWaitTimeP99();
+
+	public abstract long getWaitTimeMax();
+
+	public abstract long getHoldTimeMean();
+
+	public abstract long getHoldTimeP99();
+
+	public abstract long getHoldTimeMax();
+
+	public abstract void reset();
+}
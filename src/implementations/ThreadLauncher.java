@@ -0,0 +1,123 @@
+package implementations;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Starts the threads of the main demos either as platform threads (default) or as
+ * virtual threads
+ *
+ * the primitives here wait on java.util.concurrent.locks conditions or park with
+ * LockSupport, never inside synchronized, so a virtual thread blocked on one of them
+ * unmounts from its carrier and a demo can run a million customers, riders or
+ * producers on a handful of carrier threads
+ *
+ * demos take "virtual" and an optional task count on the command line -
+ * 	java implementations.BarberShop virtual 1000000
+ * runAll(tasks, kinds...) starts one thread per task and kind and waits for all of them,
+ * for demos where every item gets its own producer and its own consumer
+ *
+ * virtual threads are looked up by reflection (Thread.ofVirtual()), the code builds and
+ * runs on jdks without them and falls back to platform threads there
+ */
+final class ThreadLauncher {
+
+	private static final Object VIRTUAL_BUILDER;
+	private static final Method UNSTARTED;
+
+	static {
+		Object builder = null;
+		Method unstarted = null;
+		try {
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+		} catch(ReflectiveOperationException e) {
+			builder = null;		//no virtual threads on this jdk
+			unstarted = null;
+		}
+		VIRTUAL_BUILDER = builder;
+		UNSTARTED = unstarted;
+	}
+
+	//body of one thread started by runAll, i is the task number
+	interface Task {
+		void run(int i) throws InterruptedException;
+	}
+
+	private final boolean virtual;
+
+	private ThreadLauncher(boolean virtual) {
+		this.virtual = virtual && VIRTUAL_BUILDER != null;
+	}
+
+	//virtual if "virtual" is one of the arguments and the jdk has virtual threads
+	static ThreadLauncher fromArgs(String[] args) {
+		boolean virtual = false;
+		for(String arg: args)
+			if(arg.equals("virtual"))
+				virtual = true;
+		if(virtual && VIRTUAL_BUILDER == null)
+			System.out.println("virtual threads not available on this jdk, using platform threads");
+		return new ThreadLauncher(virtual);
+	}
+
+	//first numeric argument, or def if there is none
+	static int count(String[] args, int def) {
+		for(String arg: args) {
+			try {
+				return Integer.parseInt(arg);
+			} catch(NumberFormatException e) {
+				//not the count
+			}
+		}
+		return def;
+	}
+
+	boolean isVirtual() {
+		return virtual;
+	}
+
+	//unstarted thread running r
+	Thread newThread(Runnable r) {
+		if(!virtual)
+			return new Thread(r);
+		try {
+			return (Thread) UNSTARTED.invoke(VIRTUAL_BUILDER, r);
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("can't create virtual thread", e);
+		}
+	}
+
+	Thread start(Runnable r) {
+		Thread t = newThread(r);
+		t.start();
+		return t;
+	}
+
+	//for i in [0, tasks) starts a thread for every kind running kind.run(i), then waits
+	//for all of them. returns the elapsed time in ns
+	long runAll(int tasks, Task... kinds) throws InterruptedException {
+		long start = System.nanoTime();
+		List<Thread> threads = new ArrayList<>(tasks * kinds.length);
+		for(int i=0; i<tasks; i++) {
+			for(Task kind: kinds) {
+				int task = i;
+				threads.add(start(() -> {
+					try {
+						kind.run(task);
+					} catch(InterruptedException e) {
+						System.out.println("Interrupted task "+task);
+					}
+				}));
+			}
+		}
+		joinAll(threads);
+		return System.nanoTime() - start;
+	}
+
+	static void joinAll(List<Thread> threads) throws InterruptedException {
+		for(Thread t: threads)
+			t.join();
+	}
+}
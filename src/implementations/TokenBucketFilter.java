@@ -1,7 +1,29 @@
 package implementations;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+//getToken() - blocks until a token is available, no way to give up
+//tryGetToken()/tryGetTokens(n) - take the tokens only if they are available right now
+//getToken(timeout) - false if the token isn't available before the timeout
+//acquireAsync(n) - future completed once n tokens are given to the caller, waiters
+//		are completed in arrival order without parking a thread per waiter
+//estimatedWaitNanos(n) - how long getting n tokens would take right now, lets callers
+//		reject a request early instead of queueing it
 public interface TokenBucketFilter {
-	
+
 	public abstract void getToken();
 
+	public default boolean tryGetToken() {
+		return tryGetTokens(1);
+	}
+
+	public abstract boolean tryGetTokens(int n);
+
+	public abstract boolean getToken(long timeout, TimeUnit unit) throws InterruptedException;
+
+	public abstract CompletableFuture<Void> acquireAsync(int n);
+
+	public abstract long estimatedWaitNanos(int n);
+
 }
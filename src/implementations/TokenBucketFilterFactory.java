@@ -1,63 +1,650 @@
 package implementations;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
 //Factory class to create TokenBucketFilter objects
 //this class creates TokenBucketFilter objects that are thread safe
 //Responsibility
 //provide static method to return TokenBucketFilter object
+//
+//createTokenBucketFilter(capacity) - tokens added by a generator thread, one per second
+//createTokenBucketFilter(capacity, period, unit) - no thread, tokens are computed from
+//		the time that passed whenever somebody asks for one
+//createStripedTokenBucketFilter(capacity, period, unit, batch) - lazy filter with a
+//		token cache per stripe of threads, for rates where one CAS word is too hot
+//withMetrics(filter, name) - same filter, counting granted requests, how many had to
+//		wait and for how long (SyncMetrics registered as MBean under name)
+//withoutMetrics(filter) - unregisters that MBean and returns the filter without metrics
+//
+//acquireAsync waiters are completed by a timer, not by threads parked per waiter -
+//the generator thread for the generator based filter, one daemon thread shared by all
+//lazy filters for those. the timer only hands the completion to the default async
+//executor of CompletableFuture (the common pool), so stages chained on the future
+//without an executor of their own don't run on the timer and hold up other buckets
+//
+//interrupting the generator thread stops that filter - no more tokens, acquireAsync
+//futures still waiting are cancelled. getToken() can't throw InterruptedException,
+//an interrupt while waiting is kept set for the caller
+//
+//no filter blocks inside synchronized - the generator based filter waits on a lock
+//condition, the lazy ones park or sleep - so virtual threads waiting for tokens don't
+//pin their carrier threads
 public class TokenBucketFilterFactory {
 	
+	private static final int GENERATION_INTERRUPTED = EventJournal.event(" token Generation interrupted");
+	private static final int WAIT_INTERRUPTED = EventJournal.event("wait for token interrupted ! thread = {thread}");
+	private static final int GOT_TOKEN = EventJournal.event("Got token from TokenBucket at {}");
+	
+	//created on first use of acquireAsync of a lazy filter or by a striped filter
+	private static class SharedTimer {
+		static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r);
+			t.setName("Token Bucket timer thread");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	private static class PendingAcquire {
+		final int n;
+		final CompletableFuture<Void> future;
+		
+		PendingAcquire(int n) {
+			this.n = n;
+			this.future = new CompletableFuture<>();
+		}
+	}
+	
 	private static class MultiThreadedTokenBucketFilter implements TokenBucketFilter{
 		
 		private int availableTokens;
 		private final int MAX_TOKENS;
 		private final int GENERATION_RATE;
 		
+		//async waiters in arrival order, served by the generator before anybody else
+		private final ArrayDeque<PendingAcquire> pending;
+		private int pendingTokens;
+		
+		private final Lock lock;
+		private final Condition tokenAdded;
+		
 		private MultiThreadedTokenBucketFilter(int capacity) {
 			this.availableTokens = 0;
 			this.MAX_TOKENS = capacity;
 			this.GENERATION_RATE = 1000; //in milli seconds
+			this.pending = new ArrayDeque<>();
+			this.pendingTokens = 0;
+			this.lock = new ReentrantLock();
+			this.tokenAdded = lock.newCondition();
 		}
 		
 		private void initTokenGenerator() {
 			Thread generator = new Thread( () -> this.tokenGenerator() );
 			generator.setName("Token Generator thread");
 			generator.setDaemon(true);		//low priority thread to generate tokens, don't stop jvm from exiting
+			generator.start();
 		}
 		
 		private void tokenGenerator() {
 			while(true) {
-				synchronized(this) {
+				List<PendingAcquire> served = new ArrayList<>();
+				lock.lock();
+				try {
 					if(availableTokens < MAX_TOKENS)
 						availableTokens++;
-					this.notifyAll();
+					while(!pending.isEmpty() && pending.peekFirst().n <= availableTokens) {
+						PendingAcquire p = pending.pollFirst();
+						availableTokens -= p.n;
+						pendingTokens -= p.n;
+						served.add(p);
+					}
+					tokenAdded.signalAll();
+				} finally {
+					lock.unlock();
 				}
+				//outside the lock, callbacks of the futures run on the common pool
+				for(PendingAcquire p: served)
+					p.future.completeAsync(() -> null);
 				try {
 					Thread.sleep(GENERATION_RATE);
 				} catch(InterruptedException e) {
-					System.out.println(" token Generation interrupted");
+					//somebody stops the generator, no tokens from now on
+					EventJournal.log(GENERATION_INTERRUPTED);
+					cancelPending();
+					Thread.currentThread().interrupt();
+					return;
 				}
 			}
 		}
 		
+		//async waiters would never get their tokens once the generator stopped
+		private void cancelPending() {
+			List<PendingAcquire> cancelled;
+			lock.lock();
+			try {
+				cancelled = new ArrayList<>(pending);
+				pending.clear();
+				pendingTokens = 0;
+			} finally {
+				lock.unlock();
+			}
+			for(PendingAcquire p: cancelled)
+				p.future.cancel(false);
+		}
+		
+		//getToken can't throw InterruptedException, an interrupt is kept for the caller
+		//and the wait goes on. use getToken(timeout, unit) to be able to give up
 		@Override
 		public void getToken() {
-			
-			synchronized(this) {
-				while(availableTokens == 0) {
+			boolean interrupted = false;
+			lock.lock();
+			try {
+				while(availableTokens == 0 || !pending.isEmpty()) {
 					try {
-						this.wait();
+						tokenAdded.await();
 					} catch (InterruptedException e) {
-						System.out.println("wait for token interrupted ! thread = "+Thread.currentThread().getName());
+						EventJournal.log(WAIT_INTERRUPTED);
+						interrupted = true;
 					}
 				}
 				
 				availableTokens--;
-				System.out.println("Got token from TokenBucket at "+System.currentTimeMillis());
+				EventJournal.log(GOT_TOKEN, System.currentTimeMillis());		//lock is held, don't print here
+			} finally {
+				lock.unlock();
+				if(interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+		
+		@Override
+		public boolean tryGetTokens(int n) {
+			if(n <= 0 || n > MAX_TOKENS)
+				throw new IllegalArgumentException("tokens should be between 1 and "+MAX_TOKENS+", got "+n);
+			lock.lock();
+			try {
+				if(!pending.isEmpty() || availableTokens < n)
+					return false;
+				availableTokens -= n;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public boolean getToken(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			lock.lock();
+			try {
+				while(availableTokens == 0 || !pending.isEmpty()) {
+					long nanos = deadline - System.nanoTime();
+					if(nanos <= 0)
+						return false;
+					tokenAdded.awaitNanos(nanos);
+				}
+				availableTokens--;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public CompletableFuture<Void> acquireAsync(int n) {
+			if(n <= 0 || n > MAX_TOKENS)
+				throw new IllegalArgumentException("tokens should be between 1 and "+MAX_TOKENS+", got "+n);
+			lock.lock();
+			try {
+				if(pending.isEmpty() && availableTokens >= n) {
+					availableTokens -= n;
+					return CompletableFuture.completedFuture(null);
+				}
+				PendingAcquire p = new PendingAcquire(n);
+				pending.addLast(p);
+				pendingTokens += n;
+				return p.future;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		//threads blocked in getToken are not counted
+		@Override
+		public long estimatedWaitNanos(int n) {
+			lock.lock();
+			try {
+				int missing = pendingTokens + n - availableTokens;
+				if(missing <= 0)
+					return 0;
+				return TimeUnit.MILLISECONDS.toNanos((long) missing * GENERATION_RATE);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		//depth of the metrics, snapshot only
+		long availableTokens() {
+			lock.lock();
+			try {
+				return availableTokens;
+			} finally {
+				lock.unlock();
 			}
 		}
 		
 	}
 	
+	//Token bucket without generator thread and without monitor
+	//
+	//instead of a token count that somebody has to keep topping up, the whole bucket
+	//is one number, tat (theoretical arrival time) - the time at which the bucket
+	//would be full again if nobody took any more tokens. every token taken pushes
+	//tat one period further, time passing refills the bucket by itself
+	//	tokens available at now = min(MAX_TOKENS, (now - (tat - MAX_TOKENS*period)) / period)
+	//	bucket is full when tat <= now
+	//so token count and last refill time live in a single long and one CAS on it
+	//takes a token
+	//
+	//getToken() reserves the next token with that CAS even if it is in the future and
+	//then sleeps until the token is due, so waiters are served in the order of their
+	//CAS and nobody has to wake them. acquireAsync reserves the same way and lets the
+	//shared timer complete the future when the tokens are due
+	//tryGetTokens(n) only reserves tokens that are due now, so it fails for n > MAX_TOKENS
+	//
+	//bucket starts empty, like the generator based one
+	private static class LazyTokenBucketFilter implements TokenBucketFilter {
+
+		private final long origin;		//System.nanoTime() when created, times below are relative to it
+		private final long period;		//ns per token
+		private final long burst;		//ns to refill from empty to MAX_TOKENS
+		private final AtomicLong tat;
+
+		private static final long NOT_RESERVED = Long.MIN_VALUE;
+
+		private LazyTokenBucketFilter(int capacity, long period, TimeUnit unit) {
+			if(capacity <= 0 || period <= 0)
+				throw new IllegalArgumentException("capacity and period should be positive");
+			this.origin = System.nanoTime();
+			this.period = unit.toNanos(period);
+			this.burst = capacity * this.period;
+			this.tat = new AtomicLong(now() + burst);
+		}
+
+		private long now() {
+			return System.nanoTime() - origin;
+		}
+
+		@Override
+		public void getToken() {
+			long due = reserve(1, Long.MAX_VALUE);
+
+			boolean interrupted = false;
+			long wait;
+			while((wait = due - now()) > 0) {
+				LockSupport.parkNanos(this, wait);
+				if(Thread.interrupted())
+					interrupted = true;		//token is already reserved, finish waiting for it
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		@Override
+		public boolean tryGetTokens(int n) {
+			return reserve(n, 0) != NOT_RESERVED;
+		}
+
+		//if interrupted while waiting the token is given back, unless somebody reserved
+		//after us, then it is lost
+		@Override
+		public boolean getToken(long timeout, TimeUnit unit) throws InterruptedException {
+			long due = reserve(1, unit.toNanos(timeout));
+			if(due == NOT_RESERVED)
+				return false;
+
+			long wait;
+			while((wait = due - now()) > 0) {
+				LockSupport.parkNanos(this, wait);
+				if(Thread.interrupted()) {
+					long next = due + burst;
+					tat.compareAndSet(next, next - period);
+					throw new InterruptedException();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public CompletableFuture<Void> acquireAsync(int n) {
+			long wait = reserve(n, Long.MAX_VALUE) - now();
+			if(wait <= 0)
+				return CompletableFuture.completedFuture(null);
+
+			CompletableFuture<Void> f = new CompletableFuture<>();
+			SharedTimer.TIMER.schedule(() -> f.completeAsync(() -> null), wait, TimeUnit.NANOSECONDS);
+			return f;
+		}
+
+		@Override
+		public long estimatedWaitNanos(int n) {
+			long now = now();
+			long due = Math.max(tat.get(), now) + n * period - burst;
+			return Math.max(0, due - now);
+		}
+
+		//tokens due now, depth of the metrics. snapshot only
+		long availableTokens() {
+			long ahead = tat.get() - now();		//how far from full
+			if(ahead <= 0)
+				return burst / period;
+			return Math.max(0, (burst - ahead) / period);
+		}
+
+		//puts back n unused tokens, the bucket doesn't go above MAX_TOKENS
+		private void giveBack(int n) {
+			while(true) {
+				long t = tat.get();
+				long now = now();
+				if(t <= now)
+					return;		//already full
+				if(tat.compareAndSet(t, Math.max(t - n * period, now)))
+					return;
+			}
+		}
+
+		//takes n tokens if they are due within maxWait ns from now
+		//returns the time at which they are due, or NOT_RESERVED
+		private long reserve(int n, long maxWait) {
+			if(n <= 0)
+				throw new IllegalArgumentException("tokens should be positive, got "+n);
+			while(true) {
+				long t = tat.get();
+				long now = now();
+				long next = Math.max(t, now) + n * period;
+				long due = next - burst;
+				if(due - now > maxWait)
+					return NOT_RESERVED;
+				if(tat.compareAndSet(t, next))
+					return due;
+			}
+		}
+	}
+
+	//Lazy filter with tokens cached per stripe of threads
+	//
+	//every thread hitting the same tat word serializes on its cache line, at a million
+	//tokens a second that is the bottleneck. here a thread first tries its stripe's local
+	//allowance, only when that is empty it goes to the central bucket and borrows batch
+	//tokens at once, keeping the rest for the next calls of threads of its stripe
+	//stripes are 128 bytes apart and picked from the thread id
+	//
+	//a stripe unused for idle time gives its tokens back to the central bucket, checked
+	//by the shared timer every idle time
+	//
+	//tolerance - borrowed tokens were taken from the central bucket so the long run rate
+	//is the same, but tokens borrowed earlier can be spent later. over any window of time T
+	//at most MAX_TOKENS + T/period + stripes*(batch-1) tokens are handed out, instead of
+	//MAX_TOKENS + T/period
+	private static class StripedTokenBucketFilter implements TokenBucketFilter {
+
+		private static final int STRIDE = 16;	//longs per stripe, 128 bytes
+		private static final int LAST_USE = 1;	//offset of last use time inside a stripe
+
+		private final LazyTokenBucketFilter central;
+		private final int batch;
+		private final long idle;		//ns
+		private final AtomicLongArray stripes;	//[stride*i] tokens, [stride*i + LAST_USE] last use
+		private final int stripeMask;
+
+		private StripedTokenBucketFilter(int capacity, long period, TimeUnit unit, int batch) {
+			if(batch <= 0 || batch > capacity)
+				throw new IllegalArgumentException("batch should be between 1 and capacity "+capacity+", got "+batch);
+			this.central = new LazyTokenBucketFilter(capacity, period, unit);
+			this.batch = batch;
+			//idle once a whole batch worth of tokens could have been used
+			this.idle = Math.max(TimeUnit.MILLISECONDS.toNanos(1), batch * central.period);
+
+			int n = 1;
+			while(n < Runtime.getRuntime().availableProcessors() * 2)
+				n <<= 1;
+			this.stripes = new AtomicLongArray(n * STRIDE);
+			this.stripeMask = n - 1;
+		}
+
+		//the timer only keeps a weak reference, a filter nobody uses anymore can be
+		//collected and its task cancels itself
+		private void startIdleReturn() {
+			WeakReference<StripedTokenBucketFilter> ref = new WeakReference<>(this);
+			ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+			task[0] = SharedTimer.TIMER.scheduleWithFixedDelay(() -> {
+				StripedTokenBucketFilter f = ref.get();
+				if(f == null)
+					task[0].cancel(false);
+				else
+					f.returnIdleTokens();
+			}, idle, idle, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void getToken() {
+			if(takeLocal(1) || borrow(1))
+				return;
+			central.getToken();
+		}
+
+		@Override
+		public boolean tryGetTokens(int n) {
+			return takeLocal(n) || borrow(n) || central.tryGetTokens(n);
+		}
+
+		@Override
+		public boolean getToken(long timeout, TimeUnit unit) throws InterruptedException {
+			if(takeLocal(1) || borrow(1))
+				return true;
+			return central.getToken(timeout, unit);
+		}
+
+		@Override
+		public CompletableFuture<Void> acquireAsync(int n) {
+			if(takeLocal(n) || borrow(n))
+				return CompletableFuture.completedFuture(null);
+			return central.acquireAsync(n);
+		}
+
+		@Override
+		public long estimatedWaitNanos(int n) {
+			if(stripes.get(stripe()) >= n)
+				return 0;
+			return central.estimatedWaitNanos(n);
+		}
+
+		//central bucket plus the tokens cached in the stripes, snapshot only
+		long availableTokens() {
+			long tokens = central.availableTokens();
+			for(int i=0; i<stripes.length(); i+=STRIDE)
+				tokens += stripes.get(i);
+			return tokens;
+		}
+
+		private boolean takeLocal(int n) {
+			int i = stripe();
+			while(true) {
+				long tokens = stripes.get(i);
+				if(tokens < n)
+					return false;
+				if(stripes.compareAndSet(i, tokens, tokens - n)) {
+					stripes.lazySet(i + LAST_USE, central.now());
+					return true;
+				}
+			}
+		}
+
+		//takes a whole batch from the central bucket, n for the caller and the rest for the stripe
+		private boolean borrow(int n) {
+			if(n > batch || !central.tryGetTokens(batch))
+				return false;
+			int i = stripe();
+			if(batch > n)
+				stripes.getAndAdd(i, batch - n);
+			stripes.lazySet(i + LAST_USE, central.now());
+			return true;
+		}
+
+		private void returnIdleTokens() {
+			long now = central.now();
+			for(int i=0; i<stripes.length(); i+=STRIDE) {
+				if(stripes.get(i) > 0 && now - stripes.get(i + LAST_USE) >= idle) {
+					long tokens = stripes.getAndSet(i, 0);
+					if(tokens > 0)
+						central.giveBack((int) tokens);
+				}
+			}
+		}
+
+		private int stripe() {
+			long id = Thread.currentThread().getId();
+			int h = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+			return (h & stripeMask) * STRIDE;
+		}
+	}
+
+	//counts what goes through the filter it wraps, see SyncMetrics
+	//a blocking request first tries to get its tokens right away, only if that fails it
+	//counts as blocked and its wait is timed
+	private static class MeteredTokenBucketFilter implements TokenBucketFilter {
+		
+		private final TokenBucketFilter filter;
+		private final SyncMetrics metrics;
+		
+		private MeteredTokenBucketFilter(TokenBucketFilter filter, SyncMetrics metrics) {
+			this.filter = filter;
+			this.metrics = metrics;
+		}
+		
+		@Override
+		public void getToken() {
+			if(!filter.tryGetToken()) {
+				long start = metrics.waitStarted();
+				try {
+					filter.getToken();
+				} finally {
+					metrics.waitEnded(start);
+				}
+			}
+			metrics.acquired();
+		}
+		
+		@Override
+		public boolean tryGetTokens(int n) {
+			if(!filter.tryGetTokens(n))
+				return false;
+			metrics.acquired();
+			return true;
+		}
+		
+		@Override
+		public boolean getToken(long timeout, TimeUnit unit) throws InterruptedException {
+			if(!filter.tryGetToken()) {
+				long start = metrics.waitStarted();
+				boolean got;
+				try {
+					got = filter.getToken(timeout, unit);
+				} finally {
+					metrics.waitEnded(start);
+				}
+				if(!got) {
+					metrics.timedOut();
+					return false;
+				}
+			}
+			metrics.acquired();
+			return true;
+		}
+		
+		@Override
+		public CompletableFuture<Void> acquireAsync(int n) {
+			CompletableFuture<Void> f = filter.acquireAsync(n);
+			if(f.isDone()) {
+				if(!f.isCompletedExceptionally())
+					metrics.acquired();
+				return f;
+			}
+			long start = metrics.waitStarted();
+			return f.whenComplete((v, e) -> {
+				metrics.waitEnded(start);
+				if(e == null)
+					metrics.acquired();
+			});
+		}
+		
+		@Override
+		public long estimatedWaitNanos(int n) {
+			return filter.estimatedWaitNanos(n);
+		}
+	}
+	
+	//filter counting its requests into a SyncMetrics registered as MBean under name,
+	//filters created without it pay nothing for metrics. depth is the tokens available
+	//now. throws IllegalArgumentException if another filter uses the name, withoutMetrics
+	//gives the name back
+	public static TokenBucketFilter withMetrics(TokenBucketFilter filter, String name) {
+		return new MeteredTokenBucketFilter(filter, SyncMetrics.register("TokenBucketFilter", name, depth(filter)));
+	}
+	
+	//unregisters the MBean of a filter returned by withMetrics and returns the filter it
+	//wraps, any other filter is returned as it is
+	public static TokenBucketFilter withoutMetrics(TokenBucketFilter filter) {
+		if(!(filter instanceof MeteredTokenBucketFilter))
+			return filter;
+		MeteredTokenBucketFilter m = (MeteredTokenBucketFilter) filter;
+		m.metrics.unregister();
+		return m.filter;
+	}
+	
+	//filters of other classes have no level we can read, their depth is 0
+	private static LongSupplier depth(TokenBucketFilter filter) {
+		if(filter instanceof MeteredTokenBucketFilter)
+			return depth(((MeteredTokenBucketFilter) filter).filter);
+		if(filter instanceof MultiThreadedTokenBucketFilter)
+			return ((MultiThreadedTokenBucketFilter) filter)::availableTokens;
+		if(filter instanceof LazyTokenBucketFilter)
+			return ((LazyTokenBucketFilter) filter)::availableTokens;
+		if(filter instanceof StripedTokenBucketFilter)
+			return ((StripedTokenBucketFilter) filter)::availableTokens;
+		return () -> 0;
+	}
+	
+	//metrics of a filter returned by withMetrics, null for any other filter
+	public static SyncMetrics getMetrics(TokenBucketFilter filter) {
+		return (filter instanceof MeteredTokenBucketFilter) ? ((MeteredTokenBucketFilter) filter).metrics : null;
+	}
+
+	public static TokenBucketFilter createTokenBucketFilter(int capacity, long period, TimeUnit unit) {
+		return new LazyTokenBucketFilter(capacity, period, unit);
+	}
+
+	public static TokenBucketFilter createStripedTokenBucketFilter(int capacity, long period, TimeUnit unit, int batch) {
+		StripedTokenBucketFilter o = new StripedTokenBucketFilter(capacity, period, unit, batch);
+		o.startIdleReturn();
+		return o;
+	}
+
 	public static TokenBucketFilter createTokenBucketFilter(int capacity) {
 		TokenBucketFilter o = new MultiThreadedTokenBucketFilter(capacity);
 		
@@ -0,0 +1,171 @@
+package implementations;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Cyclic barrier for many parties built as a combining tree
+ *
+ * BarrierCyclic sends every party through one monitor and wakes all of them with
+ * notifyAll, with 64+ parties every trip is a thundering herd on one lock
+ *
+ * here parties are split into groups of FAN_IN, each group arrives at its own leaf node
+ * the last party to arrive at a node goes up and arrives at the parent for the whole
+ * group, the others wait at the node. the party that arrives last at the root trips
+ * the barrier
+ * release goes back down the same way - a party released at a node releases the nodes
+ * below it where it arrived last, so each node wakes at most FAN_IN-1 waiters and the
+ * wakeup spreads through the tree in log(parties) steps instead of from one thread
+ *
+ * waiting at a node is spinning on that node's generation, which only its few waiters
+ * read, then parking if the trip takes longer than SPINS
+ *
+ * cyclic like BarrierCyclic - a node resets its count before bumping its generation, and
+ * none of its parties can come back before that bump, so the next generation starts
+ * from a clean tree with no extra reset step
+ *
+ * await() gives every calling thread a fixed party index on its first call, so it should
+ * be called by the same parties threads every generation (lockstep workers)
+ * await(party) takes the index from the caller instead, every index from 0 to parties-1
+ * must be used exactly once per generation
+ *
+ * an interrupt is only reported if it comes before the thread arrives, once arrived the
+ * thread waits for the trip (others depend on it going up the tree) and keeps the
+ * interrupt flag set
+ */
+public class TreeBarrier {
+
+	private static final int FAN_IN = 4;
+	private static final int SPINS = 1 << 10;
+
+	private static class Node {
+		final Node parent;
+		final int expected;
+		final AtomicInteger remaining;
+		volatile int generation;
+		final ConcurrentLinkedQueue<Thread> waiters;
+
+		Node(Node parent, int expected) {
+			this.parent = parent;
+			this.expected = expected;
+			this.remaining = new AtomicInteger(expected);
+			this.generation = 0;
+			this.waiters = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	final int MAX_THREADS;
+	private final Node[] leaves;
+	private final int depth;
+
+	private final AtomicInteger nextParty;
+	private final ThreadLocal<Integer> party;
+
+	TreeBarrier(int x) {
+		if(x <= 0)
+			throw new IllegalArgumentException("parties should be positive, got "+x);
+		this.MAX_THREADS = x;
+
+		//build from the root down, every node gets up to FAN_IN children
+		int levels = 1;
+		for(int n = FAN_IN; n < x; n *= FAN_IN)
+			levels++;
+		this.depth = levels;
+		this.leaves = new Node[(x + FAN_IN - 1) / FAN_IN];
+		build(null, 0, x, levels);
+
+		this.nextParty = new AtomicInteger();
+		this.party = new ThreadLocal<>();
+	}
+
+	//node for parties [from, to) at the given level, 1 being leaves
+	private Node build(Node parent, int from, int to, int level) {
+		if(level == 1) {
+			Node leaf = new Node(parent, to - from);
+			leaves[from / FAN_IN] = leaf;
+			return leaf;
+		}
+
+		int span = 1;
+		for(int i=1; i<level; i++)
+			span *= FAN_IN;		//parties under each child
+
+		int children = (to - from + span - 1) / span;
+		Node node = new Node(parent, children);
+		for(int c=0; c<children; c++)
+			build(node, from + c * span, Math.min(to, from + (c + 1) * span), level - 1);
+		return node;
+	}
+
+	public void await() throws InterruptedException {
+		Integer p = party.get();
+		if(p == null) {
+			p = nextParty.getAndIncrement();
+			if(p >= MAX_THREADS)
+				throw new IllegalStateException("more than "+MAX_THREADS+" threads called await()");
+			party.set(p);
+		}
+		await(p);
+	}
+
+	public void await(int p) throws InterruptedException {
+		if(p < 0 || p >= MAX_THREADS)
+			throw new IllegalArgumentException("party should be between 0 and "+(MAX_THREADS-1)+", got "+p);
+		if(Thread.interrupted())
+			throw new InterruptedException();
+
+		Node[] won = new Node[depth];
+		int count = 0;
+		Node node = leaves[p / FAN_IN];
+
+		while(true) {
+			int gen = node.generation;	//before arriving, it can't move until we have arrived
+			if(node.remaining.decrementAndGet() == 0) {
+				won[count++] = node;
+				if(node.parent == null)
+					break;		//last at the root, barrier trips
+				node = node.parent;
+			} else {
+				waitForRelease(node, gen);
+				break;
+			}
+		}
+
+		//release from the top, where the others waited longest
+		for(int i=count-1; i>=0; i--)
+			release(won[i]);
+	}
+
+	private void waitForRelease(Node node, int gen) {
+		int spins = SPINS;
+		boolean interrupted = false;
+		Thread me = Thread.currentThread();
+
+		while(node.generation == gen) {
+			if(spins > 0) {
+				spins--;
+				Thread.onSpinWait();
+			} else {
+				node.waiters.offer(me);
+				if(node.generation == gen)
+					LockSupport.park(this);
+				node.waiters.remove(me);
+				if(Thread.interrupted())
+					interrupted = true;
+			}
+		}
+
+		if(interrupted)
+			me.interrupt();
+	}
+
+	private void release(Node node) {
+		node.remaining.set(node.expected);
+		node.generation = node.generation + 1;	//only the last arriver writes it
+
+		Thread t;
+		while((t = node.waiters.poll()) != null)
+			LockSupport.unpark(t);
+	}
+}
@@ -23,6 +23,11 @@ import java.util.concurrent.locks.ReentrantLock;
  * 
  * Think of seated as thread sitting in the car..waiting for gates to close
  * Think of drive as closing all the gates and driving away
+ * 
+ * seated/drive log through EventJournal, drive is called with the lock held
+ * 
+ * main takes "virtual" and a rider count to run every rider on a virtual thread (see
+ * ThreadLauncher), e.g. "virtual 1000000"
  */
 public class UberRide {
 	
@@ -39,6 +44,9 @@ public class UberRide {
 	Semaphore demsWaiting;
 	Semaphore repubsWaiting;
 	
+	private static final int DRIVING = EventJournal.event("Driving away...called by {thread}");
+	private static final int SEATED = EventJournal.event("Seated..I am {thread}");
+	
 	public static final String DEMOCRAT = "democrat";
 	public static final String REPUBLICAN = "republican";
 	
@@ -124,36 +132,40 @@ public class UberRide {
 	}
 
 	private void drive() {
-		System.out.println("Driving away...called by "+Thread.currentThread().getName());
+		EventJournal.log(DRIVING);
 	}
 
 	private void seated() {
-		System.out.println("Seated..I am "+Thread.currentThread().getName());
+		EventJournal.log(SEATED);
 	}
 	
 	public static void main(String[] args) throws InterruptedException {
 		
 		UberRide o = new UberRide(4);
+		ThreadLauncher launcher = ThreadLauncher.fromArgs(args);
+		int numRiders = ThreadLauncher.count(args, 15);
 		
 		Random random = new Random();
 		List<Thread> threadList = new ArrayList<>();
 		
 		int i = 0;
 		
-		while(i < 15) {
+		while(i < numRiders) {
 			if(random.nextInt()%19 < 9) {
-				threadList.add(createThread(o, UberRide.DEMOCRAT, i));
+				threadList.add(createThread(launcher, o, UberRide.DEMOCRAT, i));
 			} else {
-				threadList.add(createThread(o, UberRide.REPUBLICAN, i));
+				threadList.add(createThread(launcher, o, UberRide.REPUBLICAN, i));
 			}
 			i++;
 		}
 		
 		//for debugging; print out all the riders
-		System.out.println("Printing out all the riders -");
-		for(Thread thread: threadList)
-			System.out.println(thread.getName());
-		System.out.println("Done printing");
+		if(!launcher.isVirtual()) {
+			System.out.println("Printing out all the riders -");
+			for(Thread thread: threadList)
+				System.out.println(thread.getName());
+			System.out.println("Done printing");
+		}
 		for(Thread thread: threadList) {
 			thread.start();
 		}
@@ -164,8 +176,8 @@ public class UberRide {
 		
 	}
 
-	private static Thread createThread(UberRide o, String party, int i) {
-		Thread thread = new Thread( () -> {
+	private static Thread createThread(ThreadLauncher launcher, UberRide o, String party, int i) {
+		Thread thread = launcher.newThread( () -> {
 			
 				try {
 					if(party.equals(UberRide.DEMOCRAT))
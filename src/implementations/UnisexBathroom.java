@@ -11,75 +11,77 @@ import java.util.List;
  * class provides two methods - maleUseBathroom, femaleUseBathroom
  * Each person takes 1000ms to use the bathroom
  * 
- * The implementation consists of using variables to maintain different 
- * information and making caller threads wait based on that information
- * to satisfy the conditions on using bathroom
+ * The bathroom is a GroupMutex with two sessions, male and female, of MAX_USERS
+ * each. entering and leaving is a CAS on one word while nobody has to wait, and a
+ * leaving person only wakes people who can go in now (same gender for the freed place,
+ * the other gender once the bathroom is empty) instead of everybody
  * This approach is kinda similar to ReadWriteLock problem
+ * 
+ * by default the gender inside keeps letting its own people in while there is room, so
+ * a steady stream of one gender starves the other. UnisexBathroom(policy) picks another
+ * GroupMutex.Policy - ALTERNATE, BATCH or AGE bound how long the other gender waits
+ * usage - UnisexBathroom [greedy|alternate|batch|age]
+ * 
+ * diagnostic output goes through EventJournal
  */
 
 public class UnisexBathroom {
 	
 	private static final String MALE = "male";
 	private static final String FEMALE = "female";
-	private static final String NONE = "none";
 	private static final int MAX_USERS = 3; 
 	private static final int USE_TIME = 1000; //in ms
 	
-	//inUseBy - male, female, none
-	private String inUseBy;
+	//sessions of the mutex
+	private static final int MALE_SESSION = 0;
+	private static final int FEMALE_SESSION = 1;
+	
+	private static final int USED_BY_MALE = EventJournal.event("bathroom used by "+MALE);
+	private static final int USED_BY_FEMALE = EventJournal.event("bathroom used by "+FEMALE);
+	private static final int USE_INTERRUPTED = EventJournal.event("Interrupted while using bathroom !");
 	
-	//instead of numUsers, a semaphore with max_permits can also be used
-	//permits denote the number of available spaces in bathroom
-	private int numUsers;
+	private final GroupMutex bathroom;
 	
 	UnisexBathroom() {
-		inUseBy = NONE;
-		numUsers = 0;
+		this(GroupMutex.Policy.GREEDY);
+	}
+	
+	UnisexBathroom(GroupMutex.Policy policy) {
+		bathroom = new GroupMutex(new int[] {MAX_USERS, MAX_USERS}, policy);
 	}
 	
-	private void useBathroom(String gender) {
-		System.out.println("bathroom used by "+gender);
+	private void useBathroom(int usedBy) {
+		EventJournal.log(usedBy);
 		try {
 			Thread.sleep(USE_TIME);
 		} catch (InterruptedException e) {
-			System.out.println("Interrupted while using bathroom !");
+			EventJournal.log(USE_INTERRUPTED);
 		}
 	}
 	
 	public void maleUseBathroom() throws InterruptedException {
-		synchronized(this) {
-			while(inUseBy.equals(FEMALE) || numUsers >= MAX_USERS)
-				this.wait();
-			inUseBy = MALE;
-			numUsers++;
-		}
-		useBathroom(MALE);
-		synchronized(this) {
-			numUsers--;
-			if(numUsers == 0)
-				inUseBy = NONE;
-			this.notifyAll();   	//this can possibly be moved to numUser==0 if block
+		bathroom.enter(MALE_SESSION);
+		try {
+			useBathroom(USED_BY_MALE);
+		} finally {
+			bathroom.exit(MALE_SESSION);
 		}
 	}
 	
 	public void femaleUseBathroom() throws InterruptedException {
-		synchronized(this) {
-			while(inUseBy.equals(MALE) || numUsers >= MAX_USERS)
-				this.wait();
-			inUseBy = FEMALE;
-			numUsers++;
-		}
-		useBathroom(FEMALE);
-		synchronized(this) {
-			numUsers--;
-			if(numUsers == 0)
-				inUseBy = NONE;
-			this.notifyAll();
+		bathroom.enter(FEMALE_SESSION);
+		try {
+			useBathroom(USED_BY_FEMALE);
+		} finally {
+			bathroom.exit(FEMALE_SESSION);
 		}
 	}
 	
 	public static void main(String[] args) {
-		UnisexBathroom o = new UnisexBathroom();
+		GroupMutex.Policy policy = GroupMutex.Policy.GREEDY;
+		if(args.length > 0)
+			policy = GroupMutex.Policy.valueOf(args[0].toUpperCase());
+		UnisexBathroom o = new UnisexBathroom(policy);
 		
 		List<Thread> maleusers = new ArrayList<>();
 		List<Thread> femaleusers = new ArrayList<>();
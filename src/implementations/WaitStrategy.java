@@ -0,0 +1,52 @@
+package implementations;
+
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * How a thread waits for a condition it is polling (space in a queue, an item in a queue ...)
+ *
+ * idle(attempt) is called in a loop by a thread that can't make progress yet, attempt
+ * counts the calls made during the current wait starting at 0. it may return at any
+ * time, the caller re-checks its condition after every call
+ *
+ * strategies trade cpu for latency -
+ * busySpin()		lowest latency, burns a core per waiting thread
+ * spinThenYield()	spins, then gives the core to other runnable threads
+ * spinThenPark()	spins, yields, then parks with exponentially growing timeouts
+ * BLOCKING		a primitive that has conditions of its own (BlockingQueue) doesn't poll
+ * 			with it at all but waits on a lock Condition and is signalled. anybody
+ * 			else polling with it just parks, like spinThenPark(0, 0, 1ms)
+ */
+public interface WaitStrategy {
+
+	public abstract void idle(int attempt);
+
+	public static final WaitStrategy BLOCKING = spinThenPark(0, 0, 1_000_000);
+
+	public static WaitStrategy busySpin() {
+		return attempt -> Thread.onSpinWait();
+	}
+
+	public static WaitStrategy spinThenYield(int spins) {
+		return attempt -> {
+			if(attempt < spins)
+				Thread.onSpinWait();
+			else
+				Thread.yield();
+		};
+	}
+
+	//parks start at 1 microsecond and double up to maxParkNanos
+	public static WaitStrategy spinThenPark(int spins, int yields, long maxParkNanos) {
+		return attempt -> {
+			if(attempt < spins) {
+				Thread.onSpinWait();
+			} else if(attempt < spins + yields) {
+				Thread.yield();
+			} else {
+				int shift = Math.min(attempt - spins - yields, 30);
+				LockSupport.parkNanos(Math.min(1000L << shift, maxParkNanos));
+			}
+		};
+	}
+}